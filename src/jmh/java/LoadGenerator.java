@@ -0,0 +1,374 @@
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Load generator that starts a MapServer in this JVM on a free port and sends it a mix of
+ * /raster, /route and /search requests made from the queries in test_params, for the whole
+ * stack: Jetty, the handlers, Gson and Base64 included.
+ *
+ * Requests arrive open loop, as a Poisson process at a fixed rate, whether or not earlier
+ * requests have been answered, and each request's latency is measured from when it was due
+ * to be sent rather than from when a client thread got round to sending it. A server that
+ * stalls therefore shows up in the percentiles for every request that should have been sent
+ * during the stall, not just for the one that was waiting.
+ *
+ * It is built with the benchmarks, but is not one: build it with
+ * mvn -P bench package -DskipTests
+ * and run it from the project root, with the test classes on the classpath for the
+ * TestParameters the corpus is made of:
+ * java -cp target/benchmarks.jar:target/test-classes LoadGenerator
+ * It is configured with these system properties:
+ * bearmaps.load.rate         Requests per second (default 50).
+ * bearmaps.load.seconds      How long to send requests for, after warming up (default 30).
+ * bearmaps.load.warmupSeconds  How long to send requests for before measuring (default 10).
+ * bearmaps.load.concurrency  Client threads, the most requests in flight at once (default 64).
+ * bearmaps.load.mix          Relative weights of the kinds of request
+ *                            (default raster=3,route=1,search=5,full=1).
+ * bearmaps.load.sessions     Number of sessions, whose routes are drawn on their rasters
+ *                            (default 50).
+ * bearmaps.load.corpus       Serialized TestParameters to take the queries from
+ *                            (default test_params).
+ * bearmaps.load.seed         Seed for the arrivals and the choice of queries (default 61).
+ * bearmaps.load.out          File the results are written to as JSON
+ *                            (default load_results.json).
+ */
+public class LoadGenerator {
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** The parameters of one request of each kind, taken from one TestParameters. */
+    private static class Query {
+        Map<String, Double> rasterParams;
+        Map<String, Double> routeParams;
+        String prefixSearchParam;
+        String actualSearchParam;
+    }
+
+    /** The results of one kind of request. */
+    private static class Stats {
+        final Histogram latency = new Histogram();
+        final Histogram service = new Histogram();
+        final AtomicLong errors = new AtomicLong();
+        /** Responses by status code, or "failed" for requests that got none. */
+        final Map<String, AtomicLong> statuses = new ConcurrentSkipListMap<>();
+    }
+
+    private final String base;
+    private final List<Query> corpus;
+    private final String[] kinds;
+    private final double[] cumulativeWeights;
+    private final int sessions;
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final Stats total = new Stats();
+
+    /**
+     * @param base URL of the server, without a trailing slash.
+     * @param corpus Queries to draw the requests from.
+     * @param mix Weight of each kind of request: raster, route, search (autocomplete) or full
+     *            (full-name search).
+     * @param sessions Number of sessions the requests are spread over.
+     */
+    LoadGenerator(String base, List<Query> corpus, Map<String, Double> mix,
+                  int sessions) {
+        this.base = base;
+        this.corpus = corpus;
+        this.sessions = sessions;
+        kinds = mix.keySet().toArray(new String[0]);
+        cumulativeWeights = new double[kinds.length];
+        double total = 0;
+        for (int i = 0; i < kinds.length; i += 1) {
+            total += mix.get(kinds[i]);
+            cumulativeWeights[i] = total;
+            stats.put(kinds[i], new Stats());
+        }
+    }
+
+    /**
+     * Sends requests at rate per second for warmupSeconds and then for seconds more, recording
+     * only the latter, and returns the results once every request sent has been answered.
+     */
+    Map<String, Object> run(double rate, int concurrency, double warmupSeconds, double seconds,
+                            long seed) throws InterruptedException {
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        Random random = new Random(seed);
+        long start = System.nanoTime();
+        long measureFrom = start + (long) (warmupSeconds * 1e9);
+        long end = measureFrom + (long) (seconds * 1e9);
+        long due = start;
+        long sent = 0;
+        while (true) {
+            due += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+            if (due >= end) {
+                break;
+            }
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            String kind = pick(random.nextDouble() * cumulativeWeights[kinds.length - 1]);
+            String url = url(kind, random);
+            long intended = due;
+            boolean measured = due >= measureFrom;
+            clients.execute(() -> send(kind, url, intended, measured));
+            sent += 1;
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.HOURS);
+        return report(rate, concurrency, seconds, sent);
+    }
+
+    /** Returns the kind of request whose cumulative weight first exceeds x. */
+    private String pick(double x) {
+        for (int i = 0; i < kinds.length; i += 1) {
+            if (x < cumulativeWeights[i]) {
+                return kinds[i];
+            }
+        }
+        return kinds[kinds.length - 1];
+    }
+
+    /** Returns the URL of a request of the given kind, from a random query of the corpus. */
+    private String url(String kind, Random random) {
+        Query p = corpus.get(random.nextInt(corpus.size()));
+        String session = "&session=load-" + random.nextInt(sessions);
+        switch (kind) {
+            case "raster":
+                return base + "/raster?" + query(p.rasterParams) + session;
+            case "route":
+                return base + "/route?" + query(p.routeParams) + session;
+            case "search":
+                return base + "/search?term=" + encode(p.prefixSearchParam);
+            case "full":
+                return base + "/search?full=true&term=" + encode(p.actualSearchParam);
+            default:
+                throw new IllegalArgumentException("Unknown kind of request " + kind);
+        }
+    }
+
+    /**
+     * Sends one request and reads the whole response, recording its latency from when it was
+     * due and its service time from when it was sent, if it falls in the measured period.
+     */
+    private void send(String kind, String url, long intended, boolean measured) {
+        long sentAt = System.nanoTime();
+        boolean ok;
+        String status;
+        try {
+            HttpURLConnection c = (HttpURLConnection) new URL(url).openConnection();
+            int code = c.getResponseCode();
+            try (InputStream in = code < 400 ? c.getInputStream() : c.getErrorStream()) {
+                drain(in);
+            }
+            ok = code < 400;
+            status = Integer.toString(code);
+        } catch (IOException e) {
+            ok = false;
+            status = "failed";
+        }
+        long done = System.nanoTime();
+        if (!measured) {
+            return;
+        }
+        for (Stats s : new Stats[] {stats.get(kind), total}) {
+            s.latency.record(done - intended);
+            s.service.record(done - sentAt);
+            if (!ok) {
+                s.errors.incrementAndGet();
+            }
+            s.statuses.computeIfAbsent(status, k -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /** Returns the results of the measured period, by kind of request and in total. */
+    private Map<String, Object> report(double rate, int concurrency, double seconds, long sent) {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("rate", rate);
+        config.put("concurrency", concurrency);
+        config.put("seconds", seconds);
+        config.put("sessions", sessions);
+        Map<String, Double> mix = new LinkedHashMap<>();
+        for (int i = 0; i < kinds.length; i += 1) {
+            mix.put(kinds[i], cumulativeWeights[i] - (i == 0 ? 0 : cumulativeWeights[i - 1]));
+        }
+        config.put("mix", mix);
+
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (Map.Entry<String, Stats> e : stats.entrySet()) {
+            endpoints.put(e.getKey(), summary(e.getValue(), seconds));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("time", System.currentTimeMillis());
+        result.put("config", config);
+        result.put("sent", sent);
+        result.put("total", summary(total, seconds));
+        result.put("endpoints", endpoints);
+        return result;
+    }
+
+    private static Map<String, Object> summary(Stats s, double seconds) {
+        Histogram latency = s.latency;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("requests", latency.count());
+        m.put("errors", s.errors.get());
+        Map<String, Long> statuses = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> e : s.statuses.entrySet()) {
+            statuses.put(e.getKey(), e.getValue().get());
+        }
+        m.put("statuses", statuses);
+        m.put("throughput_per_second", latency.count() / seconds);
+        m.put("mean_ms", latency.count() == 0 ? 0 : latency.sum() / NANOS_PER_MILLI
+                / latency.count());
+        m.put("p50_ms", latency.quantile(0.5) / NANOS_PER_MILLI);
+        m.put("p99_ms", latency.quantile(0.99) / NANOS_PER_MILLI);
+        m.put("p999_ms", latency.quantile(0.999) / NANOS_PER_MILLI);
+        m.put("max_ms", latency.max() / NANOS_PER_MILLI);
+        m.put("service_p50_ms", s.service.quantile(0.5) / NANOS_PER_MILLI);
+        m.put("service_p99_ms", s.service.quantile(0.99) / NANOS_PER_MILLI);
+        return m;
+    }
+
+    private static String query(Map<String, Double> params) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Double> e : params.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(e.getKey()).append('=').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+            continue;
+        }
+    }
+
+    /** Parses a mix such as "raster=3,route=1", keeping the order of the kinds. */
+    static Map<String, Double> parseMix(String mix) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            weights.put(kv[0].trim(), Double.parseDouble(kv[1].trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * Reads the serialized TestParameters at path. TestParameters is a test class, which the
+     * benchmarks are not compiled against, so its fields are read by name.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Query> readCorpus(String path)
+            throws IOException, ReflectiveOperationException {
+        List<?> params;
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(path))) {
+            params = (List<?>) in.readObject();
+        }
+        List<Query> corpus = new ArrayList<>(params.size());
+        for (Object p : params) {
+            Query q = new Query();
+            q.rasterParams = (Map<String, Double>) field(p, "rasterParams");
+            q.routeParams = (Map<String, Double>) field(p, "routeParams");
+            q.prefixSearchParam = (String) field(p, "prefixSearchParam");
+            q.actualSearchParam = (String) field(p, "actualSearchParam");
+            corpus.add(q);
+        }
+        return corpus;
+    }
+
+    private static Object field(Object o, String name) throws ReflectiveOperationException {
+        Field f = o.getClass().getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(o);
+    }
+
+    /** Waits for the server at base to report ready on /health/ready. */
+    private static void awaitReady(String base, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                HttpURLConnection c =
+                        (HttpURLConnection) new URL(base + "/health/ready").openConnection();
+                if (c.getResponseCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                /* Not listening yet. */
+            }
+            Thread.sleep(200);
+        }
+        throw new IllegalStateException("Server not ready after " + timeoutMillis + " ms");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = Double.parseDouble(System.getProperty("bearmaps.load.rate", "50"));
+        double seconds = Double.parseDouble(System.getProperty("bearmaps.load.seconds", "30"));
+        double warmupSeconds =
+                Double.parseDouble(System.getProperty("bearmaps.load.warmupSeconds", "10"));
+        int concurrency = Integer.getInteger("bearmaps.load.concurrency", 64);
+        Map<String, Double> mix = parseMix(
+                System.getProperty("bearmaps.load.mix", "raster=3,route=1,search=5,full=1"));
+        int sessions = Integer.getInteger("bearmaps.load.sessions", 50);
+        String corpus = System.getProperty("bearmaps.load.corpus", "test_params");
+        long seed = Long.getLong("bearmaps.load.seed", 61);
+        String out = System.getProperty("bearmaps.load.out", "load_results.json");
+
+        int port = freePort();
+        System.setProperty("bearmaps.port", Integer.toString(port));
+        MapServer.main(new String[0]);
+        String base = "http://localhost:" + port;
+        awaitReady(base, Long.getLong("bearmaps.load.startupMillis", 120000));
+
+        LoadGenerator load = new LoadGenerator(base, readCorpus(corpus), mix, sessions);
+        Map<String, Object> result = load.run(rate, concurrency, warmupSeconds, seconds, seed);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        String json = gson.toJson(result);
+        try (Writer w = new FileWriter(out)) {
+            w.write(json);
+        }
+        System.out.println(json);
+        spark.Spark.stop();
+        System.exit(0);
+    }
+}
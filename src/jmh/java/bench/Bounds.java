@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** The area the tiles cover, MapServer.ROOT_*, and queries made up inside it. */
+final class Bounds {
+    static final double ULLON = constant("ROOT_ULLON").doubleValue();
+    static final double ULLAT = constant("ROOT_ULLAT").doubleValue();
+    static final double LRLON = constant("ROOT_LRLON").doubleValue();
+    static final double LRLAT = constant("ROOT_LRLAT").doubleValue();
+    static final int TILE_SIZE = constant("TILE_SIZE").intValue();
+
+    private Bounds() {
+    }
+
+    /**
+     * Returns /raster parameters for a w by h pixel window at the center of the map, at a
+     * resolution just coarser than that of the tiles of the given 1-indexed depth, so that the
+     * rasterer picks tiles of that depth.
+     */
+    static Map<String, Double> rasterQuery(int depth, double w, double h) {
+        double tileLonDpp = (LRLON - ULLON) / (TILE_SIZE * Math.pow(2, depth));
+        double lonSpan = Math.min(LRLON - ULLON, 1.05 * tileLonDpp * w);
+        double latSpan = lonSpan * (h / w) * (ULLAT - LRLAT) / (LRLON - ULLON);
+        double lon = (ULLON + LRLON) / 2;
+        double lat = (ULLAT + LRLAT) / 2;
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", lon - lonSpan / 2);
+        params.put("lrlon", lon + lonSpan / 2);
+        params.put("ullat", lat + latSpan / 2);
+        params.put("lrlat", lat - latSpan / 2);
+        params.put("w", w);
+        params.put("h", h);
+        return params;
+    }
+
+    /** Returns the longitude the given fraction of the way from the west edge to the east. */
+    static double lon(double fraction) {
+        return ULLON + fraction * (LRLON - ULLON);
+    }
+
+    private static Number constant(String name) {
+        try {
+            return (Number) Class.forName("MapServer").getField(name).get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Returns the latitude the given fraction of the way from the north edge to the south. */
+    static double lat(double fraction) {
+        return ULLAT - fraction * (ULLAT - LRLAT);
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Building a GraphDB from the OSM file, and GraphDB.closest on points all over the map. */
+@Fork(1)
+public class GraphBenchmark {
+    private static final int POINTS = 1024;
+
+    /** A graph, and random points inside the map to find the closest vertices of. */
+    @State(Scope.Benchmark)
+    public static class Graph {
+        Object graph;
+        double[] lons = new double[POINTS];
+        double[] lats = new double[POINTS];
+
+        @Setup
+        public void setUp() throws Throwable {
+            graph = Targets.newGraph(Targets.OSM_PATH);
+            Random random = new Random(61);
+            for (int i = 0; i < POINTS; i += 1) {
+                lons[i] = Bounds.lon(random.nextDouble());
+                lats[i] = Bounds.lat(random.nextDouble());
+            }
+        }
+    }
+
+    /** Which of the points a thread looks up next. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next() {
+            next = (next + 1) & (POINTS - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public long closest(Graph g, Cursor cursor) throws Throwable {
+        int i = cursor.next();
+        return Targets.closest(g.graph, g.lons[i], g.lats[i]);
+    }
+
+    /** Parsing, cleaning and indexing the whole graph, timed one build at a time. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    public Object construct() throws Throwable {
+        return Targets.newGraph(Targets.OSM_PATH);
+    }
+}
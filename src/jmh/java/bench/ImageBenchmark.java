@@ -0,0 +1,130 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding single tiles, and the whole of writeImagesToOutputStream for the corpus's /raster
+ * queries: reading the tiles, compositing them, drawing the route and encoding the PNG.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageBenchmark {
+    private static final int TILES = 256;
+
+    /** Paths of tiles picked at random from the image directory. */
+    @State(Scope.Thread)
+    public static class Tiles {
+        Object rasterer;
+        String[] paths;
+        int next;
+
+        @Setup
+        public void setUp() throws Throwable {
+            rasterer = Targets.newRasterer(Targets.IMG_ROOT);
+            String[] names = new File(Targets.IMG_ROOT).list((dir, name) -> name.endsWith(".png"));
+            if (names == null || names.length == 0) {
+                throw new IllegalStateException("No tiles in " + Targets.IMG_ROOT);
+            }
+            List<String> all = new ArrayList<>();
+            for (String name : names) {
+                all.add(new File(Targets.IMG_ROOT, name).getPath());
+            }
+            Collections.shuffle(all, new Random(61));
+            paths = all.subList(0, Math.min(TILES, all.size())).toArray(new String[0]);
+        }
+
+        String next() {
+            next = next + 1 == paths.length ? 0 : next + 1;
+            return paths[next];
+        }
+    }
+
+    /**
+     * The rasters of the corpus's /raster queries the rasterer can answer, each with the route
+     * of the /route query that goes with it drawn on top, or with no route.
+     */
+    @State(Scope.Thread)
+    public static class Rasters {
+        @Param({"true", "false"})
+        boolean withRoute;
+
+        Object graph;
+        Object rasterer;
+        List<Map<String, Object>> rasters = new ArrayList<>();
+        List<Object> routes = new ArrayList<>();
+        int next;
+
+        @Setup
+        public void setUp() throws Throwable {
+            graph = Targets.newGraph(Targets.OSM_PATH);
+            rasterer = Targets.newRasterer(Targets.IMG_ROOT);
+            List<Map<String, Double>> rasterQueries = Targets.corpus("/raster");
+            List<Map<String, Double>> routeQueries = Targets.corpus("/route");
+            for (int i = 0; i < rasterQueries.size(); i += 1) {
+                Map<String, Object> raster;
+                try {
+                    raster = Targets.getMapRaster(rasterer, rasterQueries.get(i));
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                if (!Boolean.TRUE.equals(raster.get("query_success"))) {
+                    continue;
+                }
+                Object route = Targets.NO_ROUTE;
+                if (withRoute && i < routeQueries.size()) {
+                    Map<String, Double> p = routeQueries.get(i);
+                    Targets.clearRouteCache();
+                    route = Targets.route(graph, p.get("start_lon"), p.get("start_lat"),
+                            p.get("end_lon"), p.get("end_lat"));
+                }
+                rasters.add(raster);
+                routes.add(route);
+            }
+            if (rasters.isEmpty()) {
+                throw new IllegalStateException("No successful /raster queries in corpus");
+            }
+        }
+
+        int next() {
+            next = next + 1 == rasters.size() ? 0 : next + 1;
+            return next;
+        }
+    }
+
+    @Benchmark
+    public Object decodeTile(Tiles tiles) throws Throwable {
+        return Targets.tile(tiles.rasterer, tiles.next());
+    }
+
+    @Benchmark
+    public int writeImages(Rasters r) throws Throwable {
+        int i = r.next();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        Targets.writeImages(r.rasters.get(i), r.rasterer, r.graph, r.routes.get(i), os,
+                new HashMap<>());
+        return os.size();
+    }
+}
@@ -0,0 +1,88 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Rasterer.getMapRaster, for windows at each tile depth and for the queries of the corpus. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RasterBenchmark {
+    /** A rasterer shared by all the benchmarks of a trial. */
+    @State(Scope.Benchmark)
+    public static class Tiles {
+        Object rasterer;
+
+        @Setup
+        public void setUp() throws Throwable {
+            rasterer = Targets.newRasterer(Targets.IMG_ROOT);
+        }
+    }
+
+    /**
+     * A 1000 by 700 pixel window at the center of the map, rastered at a given depth. A window
+     * this wide needs depth 2 even to show the whole map, so depth 1 is left out.
+     */
+    @State(Scope.Thread)
+    public static class Window {
+        @Param({"2", "3", "4", "5", "6", "7"})
+        int depth;
+
+        Map<String, Double> params;
+
+        @Setup
+        public void setUp() {
+            params = Bounds.rasterQuery(depth, 1000, 700);
+        }
+    }
+
+    /** The /raster queries of the corpus the rasterer can answer, taken in turn. */
+    @State(Scope.Thread)
+    public static class Corpus {
+        List<Map<String, Double>> queries = new ArrayList<>();
+        int next;
+
+        @Setup
+        public void setUp(Tiles tiles) throws Throwable {
+            for (Map<String, Double> q : Targets.corpus("/raster")) {
+                try {
+                    Targets.getMapRaster(tiles.rasterer, q);
+                    queries.add(q);
+                } catch (RuntimeException e) {
+                    /* Left out, so that one bad query does not fail the whole run. */
+                }
+            }
+        }
+
+        Map<String, Double> next() {
+            next = next + 1 == queries.size() ? 0 : next + 1;
+            return queries.get(next);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> depth(Tiles tiles, Window window) throws Throwable {
+        return Targets.getMapRaster(tiles.rasterer, window.params);
+    }
+
+    @Benchmark
+    public Map<String, Object> corpus(Tiles tiles, Corpus corpus) throws Throwable {
+        return Targets.getMapRaster(tiles.rasterer, corpus.next());
+    }
+}
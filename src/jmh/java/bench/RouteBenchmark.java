@@ -0,0 +1,104 @@
+package bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Router.shortestPath between points a few blocks apart, points across the map, and the points
+ * of the corpus's /route queries. The route cache is cleared before every call, so each one
+ * searches the graph.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteBenchmark {
+    private static final int QUERIES = 256;
+
+    /** A graph shared by all the benchmarks of a trial. */
+    @State(Scope.Benchmark)
+    public static class Graph {
+        Object graph;
+
+        @Setup
+        public void setUp() throws Throwable {
+            graph = Targets.newGraph(Targets.OSM_PATH);
+        }
+
+        @Setup(Level.Invocation)
+        public void clearCache() throws Throwable {
+            Targets.clearRouteCache();
+        }
+    }
+
+    /**
+     * Random {stlon, stlat, destlon, destlat} queries: short ones have their ends up to 2% of
+     * the map apart, long ones start in the map's north-west quarter and end in its south-east.
+     */
+    @State(Scope.Thread)
+    public static class Queries {
+        @Param({"short", "long", "corpus"})
+        String length;
+
+        double[][] queries;
+        int next;
+
+        @Setup
+        public void setUp() throws Throwable {
+            if (length.equals("corpus")) {
+                List<Map<String, Double>> corpus = Targets.corpus("/route");
+                queries = new double[corpus.size()][];
+                for (int i = 0; i < queries.length; i += 1) {
+                    Map<String, Double> p = corpus.get(i);
+                    queries[i] = new double[] {p.get("start_lon"), p.get("start_lat"),
+                        p.get("end_lon"), p.get("end_lat")};
+                }
+                return;
+            }
+            Random random = new Random(61);
+            queries = new double[QUERIES][];
+            for (int i = 0; i < QUERIES; i += 1) {
+                double x = random.nextDouble();
+                double y = random.nextDouble();
+                if (length.equals("short")) {
+                    double x0 = 0.1 + 0.8 * x;
+                    double y0 = 0.1 + 0.8 * y;
+                    queries[i] = new double[] {Bounds.lon(x0), Bounds.lat(y0),
+                        Bounds.lon(x0 + 0.04 * (random.nextDouble() - 0.5)),
+                        Bounds.lat(y0 + 0.04 * (random.nextDouble() - 0.5))};
+                } else {
+                    queries[i] = new double[] {Bounds.lon(0.25 * x), Bounds.lat(0.25 * y),
+                        Bounds.lon(1 - 0.25 * random.nextDouble()),
+                        Bounds.lat(1 - 0.25 * random.nextDouble())};
+                }
+            }
+        }
+
+        double[] next() {
+            next = next + 1 == queries.length ? 0 : next + 1;
+            return queries[next];
+        }
+    }
+
+    @Benchmark
+    public List<?> shortestPath(Graph g, Queries queries) throws Throwable {
+        double[] q = queries.next();
+        return Targets.shortestPath(g.graph, q[0], q[1], q[2], q[3]);
+    }
+}
@@ -0,0 +1,184 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Handles on the server's classes for the benchmarks. JMH only runs benchmarks in a named
+ * package, and classes in a named package cannot refer to the server's, which live in the
+ * default package, so each target is looked up by name once, when this class is initialized,
+ * and kept in a static final MethodHandle, which the JIT compiles like a direct call.
+ *
+ * The data files are read from the working directory, or from the paths given by the system
+ * properties bearmaps.bench.osm, bearmaps.bench.img and bearmaps.bench.corpus.
+ */
+final class Targets {
+    static final String OSM_PATH = System.getProperty("bearmaps.bench.osm", "berkeley.osm");
+    static final String IMG_ROOT = System.getProperty("bearmaps.bench.img", "img/");
+    static final String CORPUS_PATH = System.getProperty("bearmaps.bench.corpus",
+            "warmup_corpus.log");
+
+    /** GraphDB(String osmPath) */
+    private static final MethodHandle NEW_GRAPH;
+    /** GraphDB.closest(double lon, double lat) */
+    private static final MethodHandle CLOSEST;
+    /** Rasterer(String imgRoot) */
+    private static final MethodHandle NEW_RASTERER;
+    /** Rasterer.getMapRaster(Map params) */
+    private static final MethodHandle GET_MAP_RASTER;
+    /** Router.shortestPath(GraphDB g, double stlon, double stlat, double destlon, ...) */
+    private static final MethodHandle SHORTEST_PATH;
+    /** Router.routeOnEdges(GraphDB g, double stlon, ..., RouteLimits limits) */
+    private static final MethodHandle ROUTE;
+    /** Router.cache().clear() */
+    private static final MethodHandle CLEAR_ROUTE_CACHE;
+    /** RouteLimits.DEFAULT */
+    private static final Object DEFAULT_LIMITS;
+    /** RouteResult.NONE */
+    static final Object NO_ROUTE;
+    /** MapServer.writeImagesToOutputStream(Map params, Rasterer rasterer, GraphDB graph, ...) */
+    private static final MethodHandle WRITE_IMAGES;
+    /** Rasterer.tile(String path) */
+    private static final MethodHandle TILE;
+    /** WarmUp.readCorpus(String path) */
+    private static final MethodHandle READ_CORPUS;
+    private static final Field ENTRY_ENDPOINT;
+    private static final Field ENTRY_PARAMS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> graph = Class.forName("GraphDB");
+            Class<?> rasterer = Class.forName("Rasterer");
+            Class<?> router = Class.forName("Router");
+            Class<?> limits = Class.forName("RouteLimits");
+            Class<?> result = Class.forName("RouteResult");
+            Class<?> server = Class.forName("MapServer");
+            Class<?> entry = Class.forName("SlowQueryLog$Entry");
+            NEW_GRAPH = lookup.unreflectConstructor(constructor(graph, String.class));
+            CLOSEST = lookup.unreflect(method(graph, "closest", double.class, double.class));
+            NEW_RASTERER = lookup.unreflectConstructor(constructor(rasterer, String.class));
+            GET_MAP_RASTER = lookup.unreflect(method(rasterer, "getMapRaster", Map.class));
+            SHORTEST_PATH = lookup.unreflect(method(router, "shortestPath", graph,
+                    double.class, double.class, double.class, double.class));
+            ROUTE = lookup.unreflect(method(router, "routeOnEdges", graph, double.class,
+                    double.class, double.class, double.class, limits));
+            Class<?> cache = Class.forName("RouteCache");
+            CLEAR_ROUTE_CACHE = MethodHandles.filterReturnValue(
+                    lookup.unreflect(method(router, "cache")),
+                    lookup.unreflect(method(cache, "clear")));
+            DEFAULT_LIMITS = field(limits, "DEFAULT").get(null);
+            NO_ROUTE = field(result, "NONE").get(null);
+            WRITE_IMAGES = lookup.unreflect(method(server, "writeImagesToOutputStream",
+                    Map.class, rasterer, graph, result, ByteArrayOutputStream.class, Map.class));
+            TILE = lookup.unreflect(method(rasterer, "tile", String.class));
+            READ_CORPUS = lookup.unreflect(method(Class.forName("WarmUp"), "readCorpus",
+                    String.class));
+            ENTRY_ENDPOINT = field(entry, "endpoint");
+            ENTRY_PARAMS = field(entry, "params");
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Targets() {
+    }
+
+    static Object newGraph(String osmPath) throws Throwable {
+        return NEW_GRAPH.invoke(osmPath);
+    }
+
+    static long closest(Object graph, double lon, double lat) throws Throwable {
+        return (long) CLOSEST.invoke(graph, lon, lat);
+    }
+
+    static Object newRasterer(String imgRoot) throws Throwable {
+        return NEW_RASTERER.invoke(imgRoot);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> getMapRaster(Object rasterer, Map<String, Double> params)
+            throws Throwable {
+        return (Map<String, Object>) GET_MAP_RASTER.invoke(rasterer, params);
+    }
+
+    static List<?> shortestPath(Object graph, double stlon, double stlat, double destlon,
+                                double destlat) throws Throwable {
+        return (List<?>) SHORTEST_PATH.invoke(graph, stlon, stlat, destlon, destlat);
+    }
+
+    /**
+     * Returns the RouteResult of a route between the given points within the default limits,
+     * snapped to the closest roads as the /route endpoint does.
+     */
+    static Object route(Object graph, double stlon, double stlat, double destlon, double destlat)
+            throws Throwable {
+        return ROUTE.invoke(graph, stlon, stlat, destlon, destlat, DEFAULT_LIMITS);
+    }
+
+    /** Forgets the routes Router has cached, so that the next ones are searched for. */
+    static void clearRouteCache() throws Throwable {
+        CLEAR_ROUTE_CACHE.invoke();
+    }
+
+    static void writeImages(Map<String, Object> raster, Object rasterer, Object graph,
+                            Object route, ByteArrayOutputStream os, Map<String, Object> detail)
+            throws Throwable {
+        WRITE_IMAGES.invoke(raster, rasterer, graph, route, os, detail);
+    }
+
+    /** Returns the decoded image of the tile at path, from the rasterer's tile source. */
+    static Object tile(Object rasterer, String path) throws Throwable {
+        return TILE.invoke(rasterer, path);
+    }
+
+    /**
+     * Returns the parameters of the queries to endpoint in the corpus at CORPUS_PATH, a slow
+     * query log or a file in the same format, as read by WarmUp.
+     */
+    static List<Map<String, Double>> corpus(String endpoint) throws Throwable {
+        List<Map<String, Double>> queries = new ArrayList<>();
+        for (Object e : (List<?>) READ_CORPUS.invoke(CORPUS_PATH)) {
+            if (!endpoint.equals(ENTRY_ENDPOINT.get(e))) {
+                continue;
+            }
+            Map<String, Double> params = new HashMap<>();
+            for (Map.Entry<?, ?> p : ((Map<?, ?>) ENTRY_PARAMS.get(e)).entrySet()) {
+                params.put((String) p.getKey(), Double.parseDouble(String.valueOf(p.getValue())));
+            }
+            queries.add(params);
+        }
+        if (queries.isEmpty()) {
+            throw new IllegalStateException("No " + endpoint + " queries in " + CORPUS_PATH);
+        }
+        return queries;
+    }
+
+    private static Constructor<?> constructor(Class<?> c, Class<?>... types)
+            throws NoSuchMethodException {
+        return accessible(c.getDeclaredConstructor(types));
+    }
+
+    private static Method method(Class<?> c, String name, Class<?>... types)
+            throws NoSuchMethodException {
+        return accessible(c.getDeclaredMethod(name, types));
+    }
+
+    private static Field field(Class<?> c, String name) throws NoSuchFieldException {
+        return accessible(c.getDeclaredField(name));
+    }
+
+    private static <T extends AccessibleObject> T accessible(T member) {
+        member.setAccessible(true);
+        return member;
+    }
+}
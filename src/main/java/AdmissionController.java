@@ -0,0 +1,74 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Weighted admission control for one class of work. The gate has a fixed capacity in cost units
+ * (for instance, tiles being composited); a request asks for as many units as it is expected to
+ * cost and either gets them or is turned away. Requests may wait a short while for capacity,
+ * but only a bounded number of them at once, so that under overload the excess is rejected
+ * quickly instead of queueing up and exhausting the heap.
+ */
+public class AdmissionController {
+    private final String name;
+    private final int capacity;
+    private final int maxWaiting;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param name Name of the gate, used to label its metrics.
+     * @param capacity Total cost units that may be in use at once.
+     * @param maxWaiting Most requests that may wait for capacity at once.
+     * @param maxWaitMillis Longest a request waits for capacity before it is rejected.
+     */
+    public AdmissionController(String name, int capacity, int maxWaiting, long maxWaitMillis) {
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.maxWaiting = maxWaiting;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(this.capacity, true);
+        Metrics.gauge("bearmaps_admission_in_use", Metrics.labels("gate", name),
+                () -> this.capacity - permits.availablePermits());
+        Metrics.gauge("bearmaps_admission_capacity", Metrics.labels("gate", name),
+                () -> this.capacity);
+    }
+
+    /** Returns true if work that costs cost units could ever be admitted. */
+    public boolean fits(int cost) {
+        return cost <= capacity;
+    }
+
+    /**
+     * Tries to admit work that costs cost units. Work that costs more than the whole capacity
+     * is rejected at once, without waiting, since it could never run without going over.
+     * @return The number of units acquired, to be passed to release, or 0 if the work was
+     * rejected.
+     */
+    public int tryAcquire(int cost) throws InterruptedException {
+        if (!fits(cost)) {
+            Metrics.increment("bearmaps_admission_total",
+                    Metrics.labels("gate", name, "outcome", "oversized"), 1);
+            return 0;
+        }
+        int units = Math.max(1, cost);
+        boolean admitted = permits.tryAcquire(units);
+        if (!admitted && maxWaitMillis > 0) {
+            if (waiting.incrementAndGet() <= maxWaiting) {
+                admitted = permits.tryAcquire(units, maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            waiting.decrementAndGet();
+        }
+        Metrics.increment("bearmaps_admission_total",
+                Metrics.labels("gate", name, "outcome", admitted ? "admitted" : "rejected"), 1);
+        return admitted ? units : 0;
+    }
+
+    /** Returns units acquired by tryAcquire. */
+    public void release(int units) {
+        if (units > 0) {
+            permits.release(units);
+        }
+    }
+}
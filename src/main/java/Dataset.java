@@ -0,0 +1,188 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One loaded version of the map data: the street graph and the rasterer over the tile images.
+ * The server swaps whole datasets at once, so every request sees a graph and a rasterer from the
+ * same load. Requests pin the dataset they use while they run, so that a reload can wait for the
+ * previous dataset to drain before dropping what was derived from it.
+ *
+ * Once a dataset has both, tiles missing from the image directory are drawn from the graph's
+ * roads and cached under bearmaps.render.cacheDir, in a directory named after the graph file
+ * and the pyramid, so that a restart with the same data reuses the tiles already drawn. The
+ * directories of other data are deleted by pruneRenderCaches, so the cache only ever holds
+ * the tiles of the data being served.
+ */
+class Dataset {
+    /** Source of generation numbers; every load gets a fresh one. */
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+    private static final boolean RENDER_ENABLED = Boolean.parseBoolean(
+            System.getProperty("bearmaps.render.enabled", "true"));
+    private static final String RENDER_CACHE_DIR =
+            System.getProperty("bearmaps.render.cacheDir", "tile_cache");
+    private static final int RENDER_MEMORY_TILES =
+            Integer.getInteger("bearmaps.render.memoryTiles", 256);
+
+    private final GraphDB graph;
+    /** The rasterer as loaded, reading tiles from the image directory only. */
+    private final Rasterer rasterer;
+    /** The rasterer requests use: rasterer, drawing the tiles it lacks if rendering is on. */
+    private final Rasterer served;
+    /** Where drawn tiles are cached, or null if none are drawn. */
+    private final TileCache renderCache;
+    private final long generation;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param graph The graph, or null while it is still being built at startup.
+     * @param rasterer The rasterer, or null while it is still being built at startup.
+     */
+    Dataset(GraphDB graph, Rasterer rasterer) {
+        this(graph, rasterer, GENERATIONS.incrementAndGet());
+    }
+
+    private Dataset(GraphDB graph, Rasterer rasterer, long generation) {
+        this.graph = graph;
+        this.rasterer = rasterer;
+        this.generation = generation;
+        if (RENDER_ENABLED && graph != null && rasterer != null) {
+            TilePyramid p = rasterer.pyramid();
+            TileSource files = rasterer.source();
+            String name = graph.fingerprint() + "-"
+                    + Integer.toHexString(p.describe().hashCode());
+            renderCache = new TileCache(new TileRenderer(graph, p),
+                    new File(RENDER_CACHE_DIR, name), RENDER_MEMORY_TILES);
+            served = rasterer.withSource((d, x, y) -> {
+                BufferedImage tile = files.tile(d, x, y);
+                return tile != null ? tile : renderCache.tile(d, x, y);
+            });
+        } else {
+            renderCache = null;
+            served = rasterer;
+        }
+    }
+
+    /**
+     * Builds a complete dataset, parsing the graph on the calling thread while the rasterer is
+     * built on another.
+     * @throws IllegalArgumentException if the graph cannot be read.
+     * @throws IllegalStateException if the graph has no roads, as a truncated file may not.
+     */
+    static Dataset load(String osmPath, String imgRoot) {
+        CompletableFuture<Rasterer> rasterer =
+                CompletableFuture.supplyAsync(() -> new Rasterer(imgRoot));
+        GraphDB graph = new GraphDB(osmPath);
+        if (graph.size() == 0) {
+            throw new IllegalStateException(osmPath + " has no roads");
+        }
+        return new Dataset(graph, rasterer.join());
+    }
+
+    /** Returns this dataset of the same generation, with graph filled in. */
+    Dataset withGraph(GraphDB g) {
+        return new Dataset(g, rasterer, generation);
+    }
+
+    /** Returns this dataset of the same generation, with rasterer filled in. */
+    Dataset withRasterer(Rasterer r) {
+        return new Dataset(graph, r, generation);
+    }
+
+    /** Returns whether the named part, "graph" or "rasterer", has been loaded. */
+    boolean has(String part) {
+        switch (part) {
+            case "graph":
+                return graph != null;
+            case "rasterer":
+                return rasterer != null;
+            default:
+                throw new IllegalArgumentException("No such part: " + part);
+        }
+    }
+
+    GraphDB graph() {
+        return graph;
+    }
+
+    Rasterer rasterer() {
+        return served;
+    }
+
+    /** Returns the cache of drawn tiles, or null if tiles are not drawn. */
+    TileCache renderCache() {
+        return renderCache;
+    }
+
+    /**
+     * Deletes the render cache directories of other data, left by earlier runs or replaced by a
+     * reload, keeping this dataset's own; other directories under bearmaps.render.cacheDir are
+     * left alone. Does nothing if this dataset draws no tiles.
+     */
+    void pruneRenderCaches() {
+        if (renderCache != null) {
+            int deleted = renderCache.deleteSiblings();
+            if (deleted > 0) {
+                System.out.printf("deleted %d stale render cache directories%n", deleted);
+            }
+        }
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    /**
+     * Pins the dataset in current and returns it. If it is swapped out in the meantime, the new
+     * one is pinned instead, so that whoever swapped it never misses a request while waiting for
+     * the old one to drain.
+     */
+    static Dataset pinCurrent(AtomicReference<Dataset> current) {
+        while (true) {
+            Dataset d = current.get();
+            d.pin();
+            if (current.get() == d) {
+                return d;
+            }
+            d.unpin();
+        }
+    }
+
+    /** Records that a request started using this dataset. */
+    void pin() {
+        inFlight.incrementAndGet();
+    }
+
+    /** Records that a request finished using this dataset. */
+    void unpin() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /** Returns how many requests are using this dataset. */
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Waits until no request is using this dataset, for at most timeoutMillis.
+     * @return true if the dataset drained in time.
+     */
+    synchronized boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (inFlight.get() > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,96 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events for the expensive parts of the server, so individual slow requests
+ * can be diagnosed from a recording (<code>-XX:StartFlightRecording</code> or
+ * <code>jcmd &lt;pid&gt; JFR.start</code>) without attaching a profiler. Events that are not
+ * enabled in the recording settings cost no more than an object allocation.
+ */
+public class FlightEvents {
+    /** One route search, from snapping the endpoints to building the path. */
+    @Name("bearmaps.Route")
+    @Label("Route")
+    @Category("BearMaps")
+    static class Route extends Event {
+        @Label("Start Longitude")
+        double startLon;
+        @Label("Start Latitude")
+        double startLat;
+        @Label("End Longitude")
+        double endLon;
+        @Label("End Latitude")
+        double endLat;
+        @Label("Status")
+        String status;
+        @Label("Path Length")
+        int pathLength;
+        @Label("Settled Vertices")
+        int settled;
+        @Label("Snap Time")
+        @Timespan
+        long snapNanos;
+        @Label("Search Time")
+        @Timespan
+        long searchNanos;
+    }
+
+    /** One call to Rasterer.getMapRaster. */
+    @Name("bearmaps.Raster")
+    @Label("Raster")
+    @Category("BearMaps")
+    static class Raster extends Event {
+        @Label("Upper Left Longitude")
+        double ullon;
+        @Label("Upper Left Latitude")
+        double ullat;
+        @Label("Lower Right Longitude")
+        double lrlon;
+        @Label("Lower Right Latitude")
+        double lrlat;
+        @Label("Width")
+        double width;
+        @Label("Height")
+        double height;
+        @Label("Depth")
+        int depth;
+        @Label("Tiles")
+        int tiles;
+        @Label("Success")
+        boolean success;
+    }
+
+    /** One composite and PNG encode in MapServer.writeImagesToOutputStream. */
+    @Name("bearmaps.RasterWrite")
+    @Label("Raster Write")
+    @Category("BearMaps")
+    static class RasterWrite extends Event {
+        @Label("Tiles")
+        int tiles;
+        @Label("Image Width")
+        int width;
+        @Label("Image Height")
+        int height;
+        @Label("Route Vertices")
+        int routeLength;
+        @Label("Tile Read Time")
+        @Timespan
+        long readNanos;
+        @Label("Composite Time")
+        @Timespan
+        long compositeNanos;
+        @Label("Route Overlay Time")
+        @Timespan
+        long routeNanos;
+        @Label("PNG Encode Time")
+        @Timespan
+        long encodeNanos;
+        @Label("PNG Size")
+        @DataAmount
+        long bytes;
+    }
+}
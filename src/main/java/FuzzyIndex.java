@@ -0,0 +1,256 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable index for typo-tolerant search over location names. Candidates are generated from
+ * an inverted index of the trigrams of the cleaned names (see GraphDB.cleanString), and then
+ * ranked by their edit distance to the query, computed only up to a bound.
+ *
+ * A query stops looking at postings and candidates once its time budget is spent, and checks at
+ * most a fixed number of candidates, those sharing the most trigrams with the query, so that a
+ * query's cost does not grow with the number of names.
+ */
+public class FuzzyIndex {
+    /** Characters a cleaned name can hold, after the padding character. */
+    private static final String ALPHABET = "$ abcdefghijklmnopqrstuvwxyz";
+    private static final int SIGMA = ALPHABET.length();
+    /** Each edit changes at most this many of a string's trigrams. */
+    private static final int TRIGRAMS_PER_EDIT = 3;
+
+    private final String[] names;
+    private final String[] keys;
+    private final double[] scores;
+    /** Names with trigram t are postings[postingStart[t]] through postings[postingStart[t+1]-1],
+     * in increasing order. */
+    private final int[] postingStart;
+    private final int[] postings;
+    private final int maxCandidates;
+    private final long budgetNanos;
+    private final ThreadLocal<Scratch> scratch;
+
+    /** Per-thread counters of shared trigrams, reset lazily by generation. */
+    private static class Scratch {
+        final int[] shared;
+        final int[] stamp;
+        int[] touched = new int[64];
+        int generation;
+
+        Scratch(int n) {
+            shared = new int[n];
+            stamp = new int[n];
+        }
+    }
+
+    /**
+     * @param entries Original names; each distinct name is indexed once.
+     * @param entryScores The score of each entry, used to break ties between equally close
+     *                    names. A name scores the sum of its entries' scores.
+     * @param maxCandidates Most names whose edit distance a query computes.
+     * @param budgetMicros Time a query may take before it returns what it has found.
+     */
+    public FuzzyIndex(List<String> entries, double[] entryScores, int maxCandidates,
+                      long budgetMicros) {
+        TreeMap<String, Double> byName = new TreeMap<>();
+        for (int i = 0; i < entries.size(); i += 1) {
+            byName.merge(entries.get(i), entryScores[i], Double::sum);
+        }
+        int n = byName.size();
+        names = new String[n];
+        keys = new String[n];
+        scores = new double[n];
+        int i = 0;
+        for (Map.Entry<String, Double> e : byName.entrySet()) {
+            names[i] = e.getKey();
+            keys[i] = GraphDB.cleanString(e.getKey());
+            scores[i] = e.getValue();
+            i += 1;
+        }
+        this.maxCandidates = maxCandidates;
+        this.budgetNanos = budgetMicros * 1000;
+
+        int trigrams = SIGMA * SIGMA * SIGMA;
+        postingStart = new int[trigrams + 1];
+        for (i = 0; i < n; i += 1) {
+            for (int t : trigrams(keys[i])) {
+                postingStart[t + 1] += 1;
+            }
+        }
+        for (int t = 0; t < trigrams; t += 1) {
+            postingStart[t + 1] += postingStart[t];
+        }
+        postings = new int[postingStart[trigrams]];
+        int[] next = Arrays.copyOf(postingStart, trigrams);
+        for (i = 0; i < n; i += 1) {
+            for (int t : trigrams(keys[i])) {
+                postings[next[t]] = i;
+                next[t] += 1;
+            }
+        }
+        scratch = ThreadLocal.withInitial(() -> new Scratch(names.length));
+    }
+
+    /**
+     * Returns up to limit names within a few edits of the query, closest first. A name matches
+     * if the cleaned query is close to the whole cleaned name or to the start of it, so that
+     * partly typed names match too. Up to 1 edit is allowed for queries of up to 4 characters,
+     * 2 for up to 8, and 3 beyond.
+     */
+    public List<String> search(String query, int limit) {
+        long deadline = System.nanoTime() + budgetNanos;
+        String q = GraphDB.cleanString(query);
+        if (q.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int maxDistance = q.length() <= 4 ? 1 : q.length() <= 8 ? 2 : 3;
+        int[] queryTrigrams = trigrams(q);
+
+        /* Count the trigrams each name shares with the query, rarest trigrams first, so that
+         * the most telling ones are counted even if the budget runs out. */
+        Integer[] order = new Integer[queryTrigrams.length];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = queryTrigrams[i];
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(postingStart[a + 1] - postingStart[a],
+                postingStart[b + 1] - postingStart[b]));
+        Scratch s = scratch.get();
+        s.generation += 1;
+        int touched = 0;
+        int counted = 0;
+        boolean outOfTime = false;
+        for (int i = 0; i < order.length && !outOfTime; i += 1) {
+            int t = order[i];
+            counted += 1;
+            for (int p = postingStart[t]; p < postingStart[t + 1]; p += 1) {
+                if ((p & 4095) == 0 && System.nanoTime() > deadline) {
+                    outOfTime = true;
+                    break;
+                }
+                int x = postings[p];
+                if (s.stamp[x] != s.generation) {
+                    s.stamp[x] = s.generation;
+                    s.shared[x] = 0;
+                    if (touched == s.touched.length) {
+                        s.touched = Arrays.copyOf(s.touched, touched * 2);
+                    }
+                    s.touched[touched] = x;
+                    touched += 1;
+                }
+                s.shared[x] += 1;
+            }
+        }
+
+        /* Keep the names sharing the most trigrams, at least the best of them and otherwise no
+         * more than maxCandidates, skipping those sharing too few to be within maxDistance
+         * edits of the query. A name the query is only a prefix of also lacks the query's
+         * last trigram, which holds the end padding. */
+        int minShared = Math.max(1, counted - TRIGRAMS_PER_EDIT * maxDistance - 1);
+        int[] bySharedCount = new int[counted + 2];
+        for (int i = 0; i < touched; i += 1) {
+            bySharedCount[s.shared[s.touched[i]]] += 1;
+        }
+        int cutoff = counted + 1;
+        int kept = 0;
+        while (cutoff > minShared
+                && (kept == 0 || kept + bySharedCount[cutoff - 1] <= maxCandidates)) {
+            cutoff -= 1;
+            kept += bySharedCount[cutoff];
+        }
+
+        List<long[]> matches = new ArrayList<>();
+        int checked = 0;
+        for (int i = 0; i < touched && checked < maxCandidates; i += 1) {
+            int x = s.touched[i];
+            if (s.shared[x] < cutoff) {
+                continue;
+            }
+            if ((checked & 63) == 0 && System.nanoTime() > deadline) {
+                break;
+            }
+            checked += 1;
+            int d = prefixDistance(q, keys[x], maxDistance);
+            if (d <= maxDistance) {
+                matches.add(new long[] {d, x});
+            }
+        }
+        matches.sort((a, b) -> {
+            if (a[0] != b[0]) {
+                return Long.compare(a[0], b[0]);
+            }
+            int c = Double.compare(scores[(int) b[1]], scores[(int) a[1]]);
+            return c != 0 ? c : Long.compare(a[1], b[1]);
+        });
+        List<String> result = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i += 1) {
+            result.add(names[(int) matches.get(i)[1]]);
+        }
+        return result;
+    }
+
+    /** Returns the number of distinct names indexed. */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the smallest edit distance between a and b or any prefix of b, or maxDistance + 1
+     * if it is larger than maxDistance.
+     */
+    static int prefixDistance(String a, String b, int maxDistance) {
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j += 1) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i += 1) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= b.length(); j += 1) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1], prev[j]) + 1, prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        int best = maxDistance + 1;
+        for (int j = 0; j <= b.length(); j += 1) {
+            best = Math.min(best, prev[j]);
+        }
+        return best;
+    }
+
+    /**
+     * Returns the distinct trigrams of key, padded with two '$' in front and one behind, each
+     * encoded as a number below SIGMA^3.
+     */
+    private static int[] trigrams(String key) {
+        String padded = "$$" + key + "$";
+        int[] codes = new int[padded.length() - 2];
+        for (int i = 0; i < codes.length; i += 1) {
+            codes[i] = (code(padded.charAt(i)) * SIGMA + code(padded.charAt(i + 1))) * SIGMA
+                    + code(padded.charAt(i + 2));
+        }
+        Arrays.sort(codes);
+        int distinct = 0;
+        for (int i = 0; i < codes.length; i += 1) {
+            if (i == 0 || codes[i] != codes[i - 1]) {
+                codes[distinct] = codes[i];
+                distinct += 1;
+            }
+        }
+        return Arrays.copyOf(codes, distinct);
+    }
+
+    private static int code(char c) {
+        int i = ALPHABET.indexOf(c);
+        return i < 0 ? 0 : i;
+    }
+}
@@ -4,6 +4,7 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -33,13 +34,15 @@ public class GraphBuildingHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
+    static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
     private String activeState = "";
     private final GraphDB g;
     private ArrayList<GraphDB.Node> wayNodeHolder;
+    /** The node being parsed, whose tags are recorded in its info map. */
+    private GraphDB.Node lastNode;
     private boolean flag;
     private long wayID;
 
@@ -80,6 +83,7 @@ public class GraphBuildingHandler extends DefaultHandler {
             //nodesMap.put(this.id, this);
             g.nList.add(x.id);
             g.nodesMap.put(x.id, x);
+            lastNode = x;
 
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
@@ -124,14 +128,14 @@ public class GraphBuildingHandler extends DefaultHandler {
                 //System.out.println("Way Name: " + v);
             }
 //            System.out.println("Tag with k=" + k + ", v=" + v + ".");
-        } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
-                .equals("name")) {
-            /* While looking at a node, we found a <tag...> with k="name". */
-            /* TODO Create a location. */
-            /* Hint: Since we found this <tag...> INSIDE a node, we should probably remember which
-            node this tag belongs to. Remember XML is parsed top-to-bottom, so probably it's the
-            last node that you looked at (check the first if-case). */
-//            System.out.println("Node's name: " + attributes.getValue("v"));
+        } else if (activeState.equals("node") && qName.equals("tag")) {
+            /* While looking at a node, we found a <tag...>. It belongs to the last node seen;
+            a name tag makes that node a location once the node ends. Only the tags locations
+            are ranked by are kept besides the name. */
+            String k = attributes.getValue("k");
+            if (k.equals("name") || GraphDB.isRankingTag(k)) {
+                lastNode.info.put(k, attributes.getValue("v"));
+            }
         }
     }
 
@@ -148,7 +152,15 @@ public class GraphBuildingHandler extends DefaultHandler {
      */
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
-        if (qName.equals("way")) {
+        if (qName.equals("node")) {
+            if (lastNode.info.containsKey("name")) {
+                g.locations.add(lastNode);
+            } else if (!lastNode.info.isEmpty()) {
+                /* Tags only matter for locations; drop the table they were kept in. */
+                lastNode.info = new HashMap<>();
+            }
+            lastNode = null;
+        } else if (qName.equals("way")) {
             /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
             /* Hint1: If you have stored the possible connections for this way, here's your
             chance to actually connect the nodes together if the way is valid. */
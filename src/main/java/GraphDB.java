@@ -5,8 +5,13 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
@@ -18,6 +23,11 @@ import java.util.Iterator;
  * @author Alan Yao, Josh Hug
  */
 public class GraphDB {
+    /** Source of snapshot ids; every constructed graph gets a fresh one. */
+    private static final AtomicLong SNAPSHOTS = new AtomicLong();
+    /** Identifies this version of the graph, so caches can tell when it has been replaced. */
+    private final long snapshot = SNAPSHOTS.incrementAndGet();
+
     /** Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Edge, etc. */
     ArrayList<Long> nList = new ArrayList<>();
@@ -65,6 +75,79 @@ public class GraphDB {
 
     HashMap<Long, Way> potentialWays = new HashMap<>();
 
+    /** How many of the most important names are precomputed for each autocomplete prefix. */
+    static final int AUTOCOMPLETE_K = Integer.getInteger("bearmaps.search.topK", 10);
+    /** How much each tag adds to a location's importance; other tags add nothing. */
+    private static final Map<String, Double> TAG_WEIGHTS = new HashMap<>();
+    static {
+        TAG_WEIGHTS.put("place", 5.0);
+        TAG_WEIGHTS.put("wikipedia", 4.0);
+        TAG_WEIGHTS.put("wikidata", 4.0);
+        TAG_WEIGHTS.put("tourism", 3.0);
+        TAG_WEIGHTS.put("amenity", 3.0);
+        TAG_WEIGHTS.put("shop", 2.0);
+        TAG_WEIGHTS.put("leisure", 2.0);
+        TAG_WEIGHTS.put("historic", 2.0);
+        TAG_WEIGHTS.put("website", 1.0);
+        TAG_WEIGHTS.put("opening_hours", 1.0);
+    }
+
+    /** Nodes with a name tag, in the order they appear in the OSM file. Unlike the vertices,
+     * these are kept whether or not they lie on a road. */
+    ArrayList<Node> locations = new ArrayList<>();
+    /** The names of the locations, for prefix search. */
+    private PrefixIndex locationNames;
+    /** The names of the locations, for typo-tolerant search. */
+    private FuzzyIndex fuzzyNames;
+    /** For each cleaned name, the locations with that name as ready-made Json maps, in file
+     * order. The lists and maps are unmodifiable, so searches can share them. */
+    private HashMap<String, List<Map<String, Object>>> locationsByName = new HashMap<>();
+    /** The Json map and the cleaned name of each location, by position in locations. */
+    private ArrayList<Map<String, Object>> locationMaps = new ArrayList<>();
+    private String[] locationKeys = new String[0];
+    /** The positions of the locations, for viewport and nearest-location queries. */
+    private PointIndex locationPoints = new PointIndex(new double[0], new double[0]);
+
+    /* Compact, array-based copy of the cleaned graph, used by the searches in Router so that
+     * per-query state can live in primitive arrays. Vertex i has id ids[i], and its edges are
+     * adjTo[adjStart[i]] through adjTo[adjStart[i + 1] - 1], weighted by adjWeight. */
+    private HashMap<Long, Integer> indexOf = new HashMap<>();
+    long[] ids = new long[0];
+    double[] lons = new double[0];
+    double[] lats = new double[0];
+    int[] adjStart = new int[1];
+    int[] adjTo = new int[0];
+    double[] adjWeight = new double[0];
+    /** The positions of the vertices, by compact index, for snapping points to the nearest. */
+    private PointIndex vertexPoints = new PointIndex(new double[0], new double[0]);
+    /* Each road segment once, as the compact indexes of its two ends, and an index over them
+     * for snapping points onto the nearest road and finding the roads in a box. */
+    private int[] segmentFrom = new int[0];
+    private int[] segmentTo = new int[0];
+    private SegmentIndex segments = new SegmentIndex(new double[0], new double[0],
+            new double[0], new double[0]);
+
+    /** Identifies the file the graph was built from, by name, size and modification time. */
+    private final String fingerprint;
+
+    /** A point on a road segment, the given fraction of the way from vertex from to vertex to
+     * (both compact indexes). */
+    static class EdgePoint {
+        final int from;
+        final int to;
+        final double fraction;
+        final double lon;
+        final double lat;
+
+        EdgePoint(int from, int to, double fraction, double lon, double lat) {
+            this.from = from;
+            this.to = to;
+            this.fraction = fraction;
+            this.lon = lon;
+            this.lat = lat;
+        }
+    }
+
     public static class Way {
         long id;
         boolean valid = true;
@@ -83,18 +166,23 @@ public class GraphDB {
      * Example constructor shows how to create and start an XML parser.
      * You do not need to modify this constructor, but you're welcome to do so.
      * @param dbPath Path to the XML file to be parsed.
+     * @throws IllegalArgumentException if the file cannot be read or is not valid XML.
      */
     public GraphDB(String dbPath) {
+        File inputFile = new File(dbPath);
+        fingerprint = inputFile.getName() + "-" + Long.toHexString(inputFile.length()) + "-"
+                + Long.toHexString(inputFile.lastModified());
         try {
-            File inputFile = new File(dbPath);
             SAXParserFactory factory = SAXParserFactory.newInstance();
             SAXParser saxParser = factory.newSAXParser();
             GraphBuildingHandler gbh = new GraphBuildingHandler(this);
             saxParser.parse(inputFile, gbh);
         } catch (ParserConfigurationException | SAXException | IOException e) {
-            e.printStackTrace();
+            throw new IllegalArgumentException("Could not read " + dbPath, e);
         }
         clean();
+        compact();
+        indexLocations();
     }
 
 
@@ -126,6 +214,276 @@ public class GraphDB {
         }
     }
 
+    /** Builds the array-based adjacency structure from the cleaned node map. */
+    private void compact() {
+        int n = nList.size();
+        ids = new long[n];
+        lons = new double[n];
+        lats = new double[n];
+        adjStart = new int[n + 1];
+        indexOf = new HashMap<>(n * 2);
+        int edges = 0;
+        for (int i = 0; i < n; i += 1) {
+            Node x = nodesMap.get(nList.get(i));
+            ids[i] = x.id;
+            lons[i] = x.lon;
+            lats[i] = x.lat;
+            indexOf.put(x.id, i);
+            edges += x.adjacents.size();
+        }
+        adjTo = new int[edges];
+        adjWeight = new double[edges];
+        int e = 0;
+        for (int i = 0; i < n; i += 1) {
+            adjStart[i] = e;
+            for (Map.Entry<Long, Double> adj : nodesMap.get(ids[i]).adjacents.entrySet()) {
+                adjTo[e] = indexOf.get(adj.getKey());
+                adjWeight[e] = adj.getValue();
+                e += 1;
+            }
+        }
+        adjStart[n] = e;
+        vertexPoints = new PointIndex(lons, lats);
+
+        int count = 0;
+        for (int i = 0; i < n; i += 1) {
+            for (int k = adjStart[i]; k < adjStart[i + 1]; k += 1) {
+                if (i < adjTo[k]) {
+                    count += 1;
+                }
+            }
+        }
+        segmentFrom = new int[count];
+        segmentTo = new int[count];
+        double[] fromX = new double[count];
+        double[] fromY = new double[count];
+        double[] toX = new double[count];
+        double[] toY = new double[count];
+        int s = 0;
+        for (int i = 0; i < n; i += 1) {
+            for (int k = adjStart[i]; k < adjStart[i + 1]; k += 1) {
+                int j = adjTo[k];
+                if (i < j) {
+                    segmentFrom[s] = i;
+                    segmentTo[s] = j;
+                    fromX[s] = lons[i];
+                    fromY[s] = lats[i];
+                    toX[s] = lons[j];
+                    toY[s] = lats[j];
+                    s += 1;
+                }
+            }
+        }
+        segments = new SegmentIndex(fromX, fromY, toX, toY);
+    }
+
+    /**
+     * Returns the compact index of the vertex closest to (lon, lat), or -1 if the graph has no
+     * vertices. Unlike closest, takes logarithmic time in the number of vertices.
+     */
+    int closestIndex(double lon, double lat) {
+        int[] nearest = vertexPoints.nearest(lon, lat, 1, v -> true);
+        return nearest.length == 0 ? -1 : nearest[0];
+    }
+
+    /**
+     * Returns the point on a road closest to (lon, lat), or null if the graph has no roads.
+     * Takes logarithmic time in the number of road segments.
+     */
+    EdgePoint snapToEdge(double lon, double lat) {
+        int s = segments.nearest(lon, lat);
+        if (s < 0) {
+            return null;
+        }
+        int a = segmentFrom[s];
+        int b = segmentTo[s];
+        double t = SegmentIndex.projection(lons[a], lats[a], lons[b], lats[b], lon, lat);
+        return new EdgePoint(a, b, t, lons[a] + t * (lons[b] - lons[a]),
+                lats[a] + t * (lats[b] - lats[a]));
+    }
+
+    /**
+     * Returns the road segments whose bounding boxes overlap the box, four numbers each: the
+     * longitude and latitude of one end, then of the other.
+     */
+    double[] segmentsWithin(double west, double south, double east, double north) {
+        int[] ends = roadsWithin(west, south, east, north);
+        double[] coordinates = new double[ends.length * 2];
+        for (int i = 0; i < ends.length; i += 2) {
+            coordinates[2 * i] = lons[ends[i]];
+            coordinates[2 * i + 1] = lats[ends[i]];
+            coordinates[2 * i + 2] = lons[ends[i + 1]];
+            coordinates[2 * i + 3] = lats[ends[i + 1]];
+        }
+        return coordinates;
+    }
+
+    /**
+     * Returns the road segments whose bounding boxes overlap the box as the compact indexes of
+     * their ends, two numbers each, so that segments sharing a vertex can be told apart.
+     */
+    int[] roadsWithin(double west, double south, double east, double north) {
+        int[] found = segments.within(west, south, east, north);
+        int[] ends = new int[found.length * 2];
+        for (int i = 0; i < found.length; i += 1) {
+            ends[2 * i] = segmentFrom[found[i]];
+            ends[2 * i + 1] = segmentTo[found[i]];
+        }
+        return ends;
+    }
+
+    /**
+     * Returns a name for the file the graph was built from that changes whenever the file
+     * does, to key whatever is derived from it and kept across restarts.
+     */
+    String fingerprint() {
+        return fingerprint;
+    }
+
+    /** Builds the search indexes over the locations. */
+    private void indexLocations() {
+        ArrayList<String> names = new ArrayList<>(locations.size());
+        double[] scores = new double[locations.size()];
+        for (int i = 0; i < locations.size(); i += 1) {
+            Node x = locations.get(i);
+            names.add(x.info.get("name"));
+            scores[i] = importance(x);
+        }
+        locationNames = new PrefixIndex(names, scores, AUTOCOMPLETE_K);
+        fuzzyNames = new FuzzyIndex(names, scores,
+                Integer.getInteger("bearmaps.search.fuzzyCandidates", 500),
+                Long.getLong("bearmaps.search.fuzzyBudgetMicros", 3000));
+
+        HashMap<String, List<Map<String, Object>>> byName = new HashMap<>();
+        ArrayList<Map<String, Object>> maps = new ArrayList<>(locations.size());
+        String[] keys = new String[locations.size()];
+        double[] lons = new double[locations.size()];
+        double[] lats = new double[locations.size()];
+        for (int i = 0; i < locations.size(); i += 1) {
+            Node x = locations.get(i);
+            Map<String, Object> location = new HashMap<>(8);
+            location.put("lat", x.lat);
+            location.put("lon", x.lon);
+            location.put("name", x.info.get("name"));
+            location.put("id", x.id);
+            maps.add(Collections.unmodifiableMap(location));
+            keys[i] = cleanString(x.info.get("name"));
+            lons[i] = x.lon;
+            lats[i] = x.lat;
+            byName.computeIfAbsent(keys[i], k -> new ArrayList<>()).add(maps.get(i));
+        }
+        for (Map.Entry<String, List<Map<String, Object>>> e : byName.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        locationsByName = byName;
+        locationMaps = maps;
+        locationKeys = keys;
+        locationPoints = new PointIndex(lons, lats);
+    }
+
+    /**
+     * Returns up to limit locations inside the given box whose cleaned name starts with the
+     * cleaned prefix, each as an unmodifiable map with "lat", "lon", "name" and "id".
+     * @param prefix Name prefix to filter by, or null for every location.
+     */
+    List<Map<String, Object>> locationsWithin(double west, double south, double east,
+                                              double north, String prefix, int limit) {
+        return locationMaps(locationPoints.within(west, south, east, north,
+                hasPrefix(prefix), limit));
+    }
+
+    /**
+     * Returns the k locations closest to (lon, lat) whose cleaned name starts with the cleaned
+     * prefix, closest first, as maps like those of locationsWithin.
+     * @param prefix Name prefix to filter by, or null for every location.
+     */
+    List<Map<String, Object>> nearestLocations(double lon, double lat, String prefix, int k) {
+        return locationMaps(locationPoints.nearest(lon, lat, k, hasPrefix(prefix)));
+    }
+
+    private IntPredicate hasPrefix(String prefix) {
+        if (prefix == null) {
+            return i -> true;
+        }
+        String p = cleanString(prefix);
+        return i -> locationKeys[i].startsWith(p);
+    }
+
+    private List<Map<String, Object>> locationMaps(int[] positions) {
+        List<Map<String, Object>> result = new ArrayList<>(positions.length);
+        for (int i : positions) {
+            result.add(locationMaps.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns at most limit names of locations within a few typos of query, or of whose start
+     * query is within a few typos, closest first.
+     */
+    List<String> fuzzyLocations(String query, int limit) {
+        return fuzzyNames.search(query, limit);
+    }
+
+    /**
+     * Returns the locations whose cleaned name is the cleaned name given, in file order, each
+     * as an unmodifiable map with "lat", "lon", "name" and "id".
+     */
+    List<Map<String, Object>> locationsNamed(String name) {
+        List<Map<String, Object>> found = locationsByName.get(cleanString(name));
+        return found == null ? Collections.emptyList() : found;
+    }
+
+    /** Returns whether tag counts towards a location's importance. */
+    static boolean isRankingTag(String tag) {
+        return TAG_WEIGHTS.containsKey(tag);
+    }
+
+    /**
+     * Scores how useful a location is to suggest, from its tags: every location counts 1, plus
+     * the weight of each tag in TAG_WEIGHTS it has. A name used by several locations adds up
+     * their scores, so well-known chains rank above one-off names.
+     */
+    static double importance(Node x) {
+        double score = 1;
+        for (String tag : x.info.keySet()) {
+            score += TAG_WEIGHTS.getOrDefault(tag, 0.0);
+        }
+        return score;
+    }
+
+    /**
+     * Returns at most limit names of locations whose cleaned name starts with the cleaned
+     * prefix, most important first; limit is capped at AUTOCOMPLETE_K.
+     */
+    List<String> topLocationsByPrefix(String prefix, int limit) {
+        return locationNames.topWithPrefix(prefix, limit);
+    }
+
+    /**
+     * Returns the distinct names of the locations whose cleaned name starts with the cleaned
+     * prefix.
+     */
+    List<String> locationsByPrefix(String prefix) {
+        return locationNames.withPrefix(prefix);
+    }
+
+    /** Returns the number of vertices in the graph. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the compact index of vertex v, or -1 if v is not in the cleaned graph. */
+    int index(long v) {
+        Integer i = indexOf.get(v);
+        return i == null ? -1 : i;
+    }
+
+    /** Returns the snapshot id of this graph. Two different GraphDBs never share one. */
+    long snapshot() {
+        return snapshot;
+    }
+
     /** Returns an iterable of all vertex IDs in the graph. */
     Iterable<Long> vertices() {
         //YOUR CODE HERE, this currently returns only an empty list.
@@ -3,20 +3,34 @@ import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
 
 import static spark.Spark.*;
 
@@ -40,6 +54,10 @@ public class MapServer {
     public static final int TILE_SIZE = 256;
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** HTTP response for requests turned away because the server is overloaded. */
+    private static final int SERVICE_UNAVAILABLE = 503;
+    /** HTTP response for requests that cost more than the server would ever admit at once. */
+    private static final int REQUEST_TOO_LARGE = 413;
     /** Route stroke information: typically roads are not more than 5px wide. */
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
@@ -70,6 +88,23 @@ public class MapServer {
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
 
+    /**
+     * Each reachability request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * lon -> start point longitude,<br> lat -> start point latitude,<br>
+     * budget -> largest distance, in the units of GraphDB.distance, to search.
+     **/
+    private static final String[] REQUIRED_REACHABLE_REQUEST_PARAMS = {"lon", "lat", "budget"};
+
+    /** Each nearby request by point must have these parameters, and may also have k. */
+    private static final String[] REQUIRED_NEARBY_POINT_PARAMS = {"lon", "lat"};
+
+    /** Each nearby request by box must have these parameters, and may also have limit. */
+    private static final String[] REQUIRED_NEARBY_BOX_PARAMS = {"ullon", "ullat", "lrlon",
+        "lrlat"};
+    /** How many locations /nearby returns by default, and at most. */
+    private static final int DEFAULT_NEARBY = 10, MAX_NEARBY = 1000;
+
     /**
      * The result of rastering must be a map containing all of the
      * fields listed in the comments for getMapRaster in Rasterer.java.
@@ -77,9 +112,118 @@ public class MapServer {
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
         "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
-    private static Rasterer rasterer;
-    private static GraphDB graph;
-    private static LinkedList<Long> route = new LinkedList<>();
+    /** Largest number of source x target pairs a single /matrix request may ask for. */
+    private static final int MAX_MATRIX_CELLS = Integer.getInteger("bearmaps.matrix.maxCells",
+            250000);
+
+    /** Largest number of routes a single /routes request may ask for. */
+    private static final int MAX_BATCH_ROUTES = Integer.getInteger("bearmaps.batch.maxRoutes",
+            1000);
+
+    /** A point of a JSON request body, e.g. one source of a /matrix request. */
+    private static class LonLat {
+        double lon;
+        double lat;
+    }
+
+    /** JSON body of a /matrix request: lists of source and target points. */
+    private static class MatrixRequest {
+        LonLat[] sources;
+        LonLat[] targets;
+    }
+
+    /** Endpoints whose latency is tracked individually; all other paths count as "other". */
+    private static final Set<String> METERED_ENDPOINTS = new HashSet<>(Arrays.asList("/raster",
+            "/route", "/routes", "/matrix", "/reachable", "/search", "/nearby", "/clear_route",
+            "/vector"));
+
+    /* Per-stage latency histograms of the /raster and /route endpoints. */
+    private static final Histogram RASTER_RASTERIZE = stageHistogram("/raster", "rasterize");
+    private static final Histogram RASTER_READ_TILES = stageHistogram("/raster", "read_tiles");
+    private static final Histogram RASTER_COMPOSITE = stageHistogram("/raster", "composite");
+    private static final Histogram RASTER_ROUTE = stageHistogram("/raster", "route_overlay");
+    private static final Histogram RASTER_ENCODE = stageHistogram("/raster", "encode_png");
+    private static final Histogram RASTER_BASE64 = stageHistogram("/raster", "base64");
+    private static final Histogram RASTER_JSON = stageHistogram("/raster", "json");
+    private static final Histogram ROUTE_SNAP = stageHistogram("/route", "snap");
+    private static final Histogram ROUTE_SEARCH = stageHistogram("/route", "search");
+    /** Number of tiles composited per /raster request. */
+    private static final Histogram RASTER_TILES = Metrics.histogram("bearmaps_raster_tiles", "");
+    /** Number of vertices settled per /route request. */
+    private static final Histogram ROUTE_SETTLED =
+            Metrics.histogram("bearmaps_route_settled_vertices", "");
+
+    /** Requests slower than bearmaps.slowlog.thresholdMillis are recorded here. */
+    private static final SlowQueryLog SLOW_QUERIES = SlowQueryLog.fromSystemProperties();
+    /** Request attribute handlers may attach details about the request to, for the slow log. */
+    private static final String DETAIL_ATTRIBUTE = "slowlog_detail";
+
+    /* Admission control. Every API request holds a slot of API_GATE while it runs, and the
+     * expensive endpoints also hold units of their own gate in proportion to their cost:
+     * tiles composited for /raster, searches run for the routing endpoints. Requests that cannot
+     * be admitted get a 503 with a Retry-After header. */
+    private static final int RETRY_AFTER_SECONDS = Integer.getInteger(
+            "bearmaps.admission.retryAfterSeconds", 1);
+    private static final long ADMISSION_WAIT_MILLIS = Long.getLong(
+            "bearmaps.admission.maxWaitMillis", 250);
+    private static final AdmissionController API_GATE = new AdmissionController("api",
+            Integer.getInteger("bearmaps.admission.maxInFlight", 64),
+            Integer.getInteger("bearmaps.admission.maxQueued", 128), ADMISSION_WAIT_MILLIS);
+    private static final AdmissionController RASTER_GATE = endpointGate("raster",
+            defaultRasterTiles());
+    private static final AdmissionController ROUTE_GATE = endpointGate("route", 32);
+    private static final AdmissionController ROUTES_GATE = endpointGate("routes", 2000);
+    private static final AdmissionController MATRIX_GATE = endpointGate("matrix", 400);
+    private static final AdmissionController REACHABLE_GATE = endpointGate("reachable", 16);
+    private static final AdmissionController VECTOR_GATE = endpointGate("vector", 32);
+
+    /** Deepest depth vector tiles are served for, independent of the depth of the images. */
+    private static final int MAX_VECTOR_DEPTH = Integer.getInteger("bearmaps.vector.maxDepth",
+            22);
+    /** Limits on a /reachable search; it returns what it settles, so it settles less than a
+     * route search may. */
+    private static final RouteLimits REACHABLE_LIMITS = new RouteLimits(
+            Integer.getInteger("bearmaps.reachable.maxSettled", 100000),
+            RouteLimits.DEFAULT.timeoutMillis, () -> false);
+    /** Most named locations a vector tile carries. */
+    private static final int MAX_VECTOR_LOCATIONS = Integer.getInteger(
+            "bearmaps.vector.maxLocations", 500);
+    /** Most road segments a vector tile may overlap; shallower tiles are turned away with 413,
+     * since every segment is simplified and encoded however little of it is drawn. */
+    private static final int MAX_VECTOR_SEGMENTS = Integer.getInteger(
+            "bearmaps.vector.maxSegments", 20000);
+
+    /** Most names a /search autocomplete may ask for. */
+    private static final int MAX_SEARCH_LIMIT = 100;
+    /** Name of the cookie that identifies a client's session, and so its route. */
+    private static final String SESSION_COOKIE = "bearmaps_session";
+    /** Query parameters that identify a session, which are left out of the slow query log. */
+    private static final Set<String> UNLOGGED_PARAMS =
+            new HashSet<>(Arrays.asList("session", SESSION_COOKIE));
+    /** Addresses the admin endpoints accept requests from when no admin token is set. */
+    private static final Set<String> LOOPBACK_ADDRESSES =
+            new HashSet<>(Arrays.asList("127.0.0.1", "0:0:0:0:0:0:0:1", "::1"));
+
+    /** Name of the request attribute holding the dataset pinned for the request. */
+    private static final String DATASET_ATTRIBUTE = "dataset";
+    /** How long a reload waits for requests still using the previous dataset. */
+    private static final long RELOAD_DRAIN_MILLIS =
+            Long.getLong("bearmaps.reload.drainMillis", 30000);
+
+    /** The graph and rasterer requests are served from; replaced as a whole by a reload. */
+    private static final AtomicReference<Dataset> DATASET =
+            new AtomicReference<>(new Dataset(null, null));
+    /** Whether a reload is running. */
+    private static final AtomicBoolean RELOADING = new AtomicBoolean();
+    /** What happened in the last reload, for the /admin/reload response. */
+    private static volatile Map<String, Object> lastReload = new HashMap<>();
+    /** Subsystems built at startup, by name; each future completes once its subsystem is up. */
+    private static final Map<String, CompletableFuture<?>> SUBSYSTEMS =
+            new ConcurrentSkipListMap<>();
+    /** The current route of each session. */
+    private static final RouteStore ROUTES = new RouteStore(
+            Integer.getInteger("bearmaps.sessions.max", 10000),
+            Long.getLong("bearmaps.sessions.idleMillis", 30 * 60 * 1000));
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -89,12 +233,100 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
-        rasterer = new Rasterer(IMG_ROOT);
+        startInitialization();
+        for (CompletableFuture<?> subsystem : SUBSYSTEMS.values()) {
+            subsystem.join();
+        }
+    }
+
+    /**
+     * Starts parsing the graph and building the rasterer, each on its own thread, and returns
+     * without waiting for them. Requests that need a subsystem are turned away with a 503
+     * until it is ready; see requireReady. Once both are up, the render caches of other data
+     * are deleted in the background.
+     */
+    private static void startInitialization() {
+        startSubsystem("rasterer", () -> {
+            Rasterer r = new Rasterer(IMG_ROOT);
+            DATASET.updateAndGet(d -> d.withRasterer(r));
+        });
+        startSubsystem("graph", () -> {
+            GraphDB g = new GraphDB(OSM_DB_PATH);
+            DATASET.updateAndGet(d -> d.withGraph(g));
+        });
+        CompletableFuture.allOf(SUBSYSTEMS.get("rasterer"), SUBSYSTEMS.get("graph"))
+                .thenRunAsync(() -> DATASET.get().pruneRenderCaches());
+    }
+
+    /**
+     * Starts warming up the JIT by replaying the corpus named by bearmaps.warmup.corpus once the
+     * graph and rasterer are up, so that the server only reports ready once it is warm. Does
+     * nothing if no corpus is configured, and then the server reports ready as soon as it has
+     * loaded, before any code is warm.
+     */
+    private static void startWarmUp() {
+        String corpus = System.getProperty("bearmaps.warmup.corpus");
+        if (corpus == null) {
+            return;
+        }
+        long budgetMillis = Long.getLong("bearmaps.warmup.budgetMillis", 30000);
+        double tolerance = Double.parseDouble(
+                System.getProperty("bearmaps.warmup.tolerance", "0.05"));
+        startSubsystem("warmup", () -> new WarmUp(WarmUp.readCorpus(corpus), budgetMillis,
+                tolerance).run(MapServer::warmUpQuery), "rasterer", "graph");
+    }
+
+    /**
+     * Replays a recorded query for warm-up. Raster queries are also composited and encoded,
+     * like a real /raster request, so that the image code is warmed up as well, but without
+     * recording the stage timings, which are only for requests served.
+     * @return true if the query was replayed.
+     */
+    private static boolean warmUpQuery(SlowQueryLog.Entry e) {
+        Dataset d = DATASET.get();
+        return SlowQueryLog.replay(e, d.graph(), d.rasterer(), raster -> {
+            if (Boolean.TRUE.equals(raster.get("query_success"))) {
+                writeImagesToOutputStream(raster, d.rasterer(), d.graph(), RouteResult.NONE,
+                        new ByteArrayOutputStream(), new HashMap<>(), false);
+            }
+        });
+    }
+
+    /**
+     * Runs build on a new thread, tracking it as the named subsystem. The build waits for the
+     * subsystems named in after, and fails if any of them does.
+     */
+    private static void startSubsystem(String name, Runnable build, String... after) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> f = new CompletableFuture<>();
+        CompletableFuture<?>[] dependencies = new CompletableFuture<?>[after.length];
+        for (int i = 0; i < after.length; i += 1) {
+            dependencies[i] = SUBSYSTEMS.get(after[i]);
+        }
+        Thread t = new Thread(() -> {
+            try {
+                CompletableFuture.allOf(dependencies).join();
+                build.run();
+                System.out.printf("%s ready after %d ms%n", name,
+                        (System.nanoTime() - start) / 1000000);
+                f.complete(null);
+            } catch (RuntimeException | Error e) {
+                e.printStackTrace();
+                f.completeExceptionally(e);
+            }
+        }, "startup-" + name);
+        SUBSYSTEMS.put(name, f);
+        t.start();
     }
 
     public static void main(String[] args) {
-        initialize();
+        startInitialization();
+        startWarmUp();
+        registerMetrics();
+        port(Integer.getInteger("bearmaps.port", 4567));
+        threadPool(Integer.getInteger("bearmaps.server.maxThreads", 200),
+                Integer.getInteger("bearmaps.server.minThreads", 8),
+                Integer.getInteger("bearmaps.server.idleTimeoutMillis", 60000));
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
@@ -102,62 +334,283 @@ public class MapServer {
             response.header("Access-Control-Allow-Origin", "*");
             response.header("Access-Control-Request-Method", "*");
             response.header("Access-Control-Allow-Headers", "*");
+            request.attribute("start_nanos", System.nanoTime());
+        });
+
+        /* Record the latency of every request, by endpoint, and log the slow ones. */
+        after((request, response) -> {
+            Long start = request.attribute("start_nanos");
+            if (start != null) {
+                long latency = System.nanoTime() - start;
+                String endpoint = endpointLabel(request.pathInfo());
+                Metrics.histogram("bearmaps_request_latency_seconds",
+                        Metrics.labels("endpoint", endpoint)).record(latency);
+                if (SLOW_QUERIES.isSlow(latency)) {
+                    Map<String, String> params = new HashMap<>();
+                    for (String p : request.queryParams()) {
+                        if (!UNLOGGED_PARAMS.contains(p)) {
+                            params.put(p, request.queryParams(p));
+                        }
+                    }
+                    SLOW_QUERIES.log(endpoint, params, latency,
+                            request.attribute(DETAIL_ATTRIBUTE));
+                }
+            }
         });
 
         /* Define the raster endpoint for HTTP GET requests. I use anonymous functions to define
          * the request handlers. */
-        get("/raster", (req, res) -> {
+        get("/raster", gated((req, res) -> {
+            requireReady("rasterer", req, res);
+            Dataset d = req.attribute(DATASET_ATTRIBUTE);
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_RASTER_REQUEST_PARAMS);
-            /* The png image is written to the ByteArrayOutputStream */
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            /* Turn away images too large to ever composite before allocating anything. */
+            requireFits(RASTER_GATE, rasterCost(params));
             /* getMapRaster() does almost all the work for this API call */
-            Map<String, Object> rasteredImgParams = rasterer.getMapRaster(params);
+            long start = System.nanoTime();
+            Map<String, Object> rasteredImgParams = getMapRaster(d.rasterer(), params);
+            long t = RASTER_RASTERIZE.recordSince(start);
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
+            Map<String, Object> detail = new HashMap<>();
+            detail.put("rasterize_ms", (t - start) / 1e6);
+            req.attribute(DETAIL_ATTRIBUTE, detail);
 
             if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+                /* Compositing allocates the whole image, so it is admitted by tile count. */
+                String[][] grid = (String[][]) rasteredImgParams.get("render_grid");
+                RouteResult route = ROUTES.get(session(req, res));
+                String encodedImage = admit(RASTER_GATE, grid.length * grid[0].length, res,
+                    () -> {
+                        /* The png image is written to the ByteArrayOutputStream */
+                        ByteArrayOutputStream os = new ByteArrayOutputStream();
+                        writeImagesToOutputStream(rasteredImgParams, d.rasterer(), d.graph(),
+                                route, os, detail);
+                        long encodeStart = System.nanoTime();
+                        String encoded = Base64.getEncoder().encodeToString(os.toByteArray());
+                        RASTER_BASE64.recordSince(encodeStart);
+                        return encoded;
+                    });
                 rasteredImgParams.put("b64_encoded_image_data", encodedImage);
+                t = System.nanoTime();
             }
 
             /* Encode response to Json */
             Gson gson = new Gson();
-            return gson.toJson(rasteredImgParams);
-        });
+            String json = gson.toJson(rasteredImgParams);
+            RASTER_JSON.recordSince(t);
+            return json;
+        }));
 
         /* Define the routing endpoint for HTTP GET requests. */
-        get("/route", (req, res) -> {
+        get("/route", gated((req, res) -> {
+            requireReady("graph", req, res);
+            GraphDB graph = ((Dataset) req.attribute(DATASET_ATTRIBUTE)).graph();
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            //route = findAndSetRoute(params);
-            return !route.isEmpty();
+            RouteResult result = admit(ROUTE_GATE, 1, res, () -> Router.routeOnEdges(graph,
+                    params.get("start_lon"), params.get("start_lat"), params.get("end_lon"),
+                    params.get("end_lat"),
+                    RouteLimits.DEFAULT.cancelledWhen(() -> clientDisconnected(req))));
+            ROUTE_SNAP.record(result.snapNanos());
+            ROUTE_SEARCH.record(result.searchNanos());
+            ROUTE_SETTLED.record(result.settled());
+            Map<String, Object> detail = new HashMap<>();
+            detail.put("status", result.status().name());
+            detail.put("path_length", result.path.length);
+            detail.put("settled", result.settled());
+            detail.put("snap_ms", result.snapNanos() / 1e6);
+            detail.put("search_ms", result.searchNanos() / 1e6);
+            req.attribute(DETAIL_ATTRIBUTE, detail);
+            Metrics.increment("bearmaps_route_results_total",
+                    Metrics.labels("status", result.status().name()), 1);
+            ROUTES.put(session(req, res), result);
+            res.header("X-Route-Status", result.status().name());
+            return result.found();
+        }));
+
+        /* Define the batch routing endpoint. The POST body is a JSON array of objects with the
+         * same keys as the /route parameters; the response is an array of {"status": ..,
+         * "path": [..]} objects, one per route, with the path empty unless status is FOUND. */
+        post("/routes", gated((req, res) -> {
+            requireReady("graph", req, res);
+            GraphDB graph = ((Dataset) req.attribute(DATASET_ATTRIBUTE)).graph();
+            double[][] queries = getBatchRouteParams(req);
+            List<RouteResult> results = admit(ROUTES_GATE, queries.length, res,
+                () -> Router.shortestPaths(graph, queries,
+                        RouteLimits.DEFAULT.cancelledWhen(() -> clientDisconnected(req))));
+            List<Map<String, Object>> routes = new ArrayList<>(results.size());
+            for (RouteResult result : results) {
+                Map<String, Object> route = new HashMap<>();
+                route.put("status", result.status().name());
+                route.put("path", result.path);
+                routes.add(route);
+                Metrics.increment("bearmaps_route_results_total",
+                        Metrics.labels("status", result.status().name()), 1);
+            }
+            Gson gson = new Gson();
+            return gson.toJson(routes);
+        }));
+
+        /* Define the distance matrix endpoint. The POST body is a JSON object with "sources"
+         * and "targets" arrays of {"lon": .., "lat": ..} points. */
+        post("/matrix", gated((req, res) -> {
+            requireReady("graph", req, res);
+            GraphDB graph = ((Dataset) req.attribute(DATASET_ATTRIBUTE)).graph();
+            MatrixRequest m = parseBody(req, MatrixRequest.class);
+            if (m == null || m.sources == null || m.targets == null) {
+                halt(HALT_RESPONSE, "Request failed - sources and targets are required.");
+            }
+            if ((long) m.sources.length * m.targets.length > MAX_MATRIX_CELLS) {
+                halt(HALT_RESPONSE, "Request failed - matrix is too large.");
+            }
+            Map<String, Object> result = admit(MATRIX_GATE, m.sources.length, res,
+                () -> getDistanceMatrix(graph, m,
+                        RouteLimits.DEFAULT.cancelledWhen(() -> clientDisconnected(req))));
+            Gson gson = new Gson();
+            return gson.toJson(result);
+        }));
+
+        /* Define the reachability endpoint. With the hull parameter present, only the convex
+         * hull of the reachable vertices is returned. */
+        get("/reachable", gated((req, res) -> {
+            requireReady("graph", req, res);
+            GraphDB graph = ((Dataset) req.attribute(DATASET_ATTRIBUTE)).graph();
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_REACHABLE_REQUEST_PARAMS);
+            Map<String, Object> result = admit(REACHABLE_GATE, 1, res,
+                () -> getReachable(graph, params, req.queryParams().contains("hull"),
+                        REACHABLE_LIMITS.cancelledWhen(() -> clientDisconnected(req))));
+            Gson gson = new Gson();
+            return gson.toJson(result);
+        }));
+
+        /* Define the nearby locations endpoint. With a box (ullon, ullat, lrlon, lrlat, as for
+         * /raster), it returns up to limit locations inside it; with a point (lon, lat), the k
+         * closest locations to it. Either may be narrowed down to names starting with prefix. */
+        get("/nearby", gated((req, res) -> {
+            requireReady("graph", req, res);
+            GraphDB graph = ((Dataset) req.attribute(DATASET_ATTRIBUTE)).graph();
+            String prefix = req.queryParams("prefix");
+            List<Map<String, Object>> found;
+            if (req.queryParams("lon") != null) {
+                HashMap<String, Double> params =
+                        getRequestParams(req, REQUIRED_NEARBY_POINT_PARAMS);
+                int k = getLimitParam(req, "k", DEFAULT_NEARBY, MAX_NEARBY);
+                found = graph.nearestLocations(params.get("lon"), params.get("lat"), prefix, k);
+            } else {
+                HashMap<String, Double> params =
+                        getRequestParams(req, REQUIRED_NEARBY_BOX_PARAMS);
+                int limit = getLimitParam(req, "limit", MAX_NEARBY, MAX_NEARBY);
+                found = graph.locationsWithin(params.get("ullon"), params.get("lrlat"),
+                        params.get("lrlon"), params.get("ullat"), prefix, limit);
+            }
+            Gson gson = new Gson();
+            return gson.toJson(found);
+        }));
+
+        /* Define the tile set endpoint: the extent, depth and layout of the tile pyramid, so
+         * that the front end knows how far it can zoom in. */
+        get("/tileset", gated((req, res) -> {
+            requireReady("rasterer", req, res);
+            Rasterer rasterer = ((Dataset) req.attribute(DATASET_ATTRIBUTE)).rasterer();
+            Gson gson = new Gson();
+            return gson.toJson(rasterer.pyramid().describe());
+        }));
+
+        /* Define the vector tile endpoint: the roads and named locations of tile (x, y) of the
+         * given depth of the tile pyramid, in the binary encoding described in VectorTile. */
+        get("/vector/:depth/:x/:y", gated((req, res) -> {
+            requireReady("graph", req, res);
+            requireReady("rasterer", req, res);
+            Dataset d = req.attribute(DATASET_ATTRIBUTE);
+            int depth = getPathParam(req, "depth", MAX_VECTOR_DEPTH);
+            int x = getPathParam(req, "x", (1 << depth) - 1);
+            int y = getPathParam(req, "y", (1 << depth) - 1);
+            byte[] tile = admit(VECTOR_GATE, 1, res,
+                () -> getVectorTile(d, depth, x, y));
+            res.type(VectorTile.CONTENT_TYPE);
+            return tile;
+        }));
+
+        /* Define the readiness endpoint: the state of each subsystem, with status 200 once all
+         * of them are ready and 503 until then. The JIT is only warmed up, and "warmup" only
+         * listed, when bearmaps.warmup.corpus is set; otherwise ready means loaded, not warm. */
+        get("/health/ready", (req, res) -> {
+            Map<String, Object> result = getReadiness();
+            if (!(boolean) result.get("ready")) {
+                res.status(SERVICE_UNAVAILABLE);
+            }
+            Gson gson = new Gson();
+            return gson.toJson(result);
+        });
+
+        /* Define the metrics endpoint, in the Prometheus text format. */
+        get("/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4");
+            return Metrics.scrape();
+        });
+
+        /* Define the admin endpoints for reloading the graph and tiles from disk: POST starts a
+         * reload in the background, GET reports on it. */
+        post("/admin/reload", (req, res) -> {
+            requireAdmin(req);
+            requireReady("graph", req, res);
+            requireReady("rasterer", req, res);
+            Map<String, Object> result = new HashMap<>();
+            result.put("started", startReload());
+            result.put("generation", DATASET.get().generation());
+            res.status(202);
+            Gson gson = new Gson();
+            return gson.toJson(result);
+        });
+        get("/admin/reload", (req, res) -> {
+            requireAdmin(req);
+            Map<String, Object> result = new HashMap<>();
+            result.put("reloading", RELOADING.get());
+            result.put("generation", DATASET.get().generation());
+            result.put("last", lastReload);
+            Gson gson = new Gson();
+            return gson.toJson(result);
+        });
+
+        /* Define the API endpoint reporting how well the route cache is doing. */
+        get("/route_cache", (req, res) -> {
+            Gson gson = new Gson();
+            return gson.toJson(Router.cache().stats());
         });
 
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            clearRoute(session(req, res));
             return true;
         });
 
         /* Define the API endpoint for search */
-        get("/search", (req, res) -> {
+        get("/search", gated((req, res) -> {
+            requireReady("graph", req, res);
+            GraphDB graph = ((Dataset) req.attribute(DATASET_ATTRIBUTE)).graph();
             Set<String> reqParams = req.queryParams();
             String term = req.queryParams("term");
+            if (term == null) {
+                halt(HALT_RESPONSE, "Request failed - parameters missing.");
+            }
             Gson gson = new Gson();
             /* Search for actual location data. */
             if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
+                List<Map<String, Object>> data = getLocations(graph, term);
                 return gson.toJson(data);
-            } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
-                return gson.toJson(matches);
             }
-        });
+            int limit = getLimitParam(req, "limit", GraphDB.AUTOCOMPLETE_K, MAX_SEARCH_LIMIT);
+            if (reqParams.contains("fuzzy")) {
+                /* Search for names close to the term, allowing for typos. */
+                return gson.toJson(getFuzzyLocations(graph, term, limit));
+            }
+            /* Search for the most important prefix matching strings. */
+            List<String> matches = getTopLocationsByPrefix(graph, term, limit);
+            return gson.toJson(matches);
+        }));
 
         /* Define map application redirect */
         get("/", (request, response) -> {
@@ -166,6 +619,276 @@ public class MapServer {
         });
     }
 
+    /**
+     * Returns the admission gate of one endpoint, whose capacity in cost units is read from the
+     * bearmaps.admission.&lt;name&gt; system property.
+     */
+    private static AdmissionController endpointGate(String name, int defaultCapacity) {
+        return new AdmissionController(name,
+                Integer.getInteger("bearmaps.admission." + name, defaultCapacity),
+                Integer.getInteger("bearmaps.admission.maxQueued", 128), ADMISSION_WAIT_MILLIS);
+    }
+
+    /**
+     * How many tiles may be composited at once by default: enough to fill a quarter of the
+     * heap, counting each tile's pixels about three times over (the composite image, the
+     * decoded tile and the encoded PNG with its Base64 copy).
+     */
+    private static int defaultRasterTiles() {
+        long bytesPerTile = 3L * TILE_SIZE * TILE_SIZE * 4;
+        return (int) Math.max(16, Runtime.getRuntime().maxMemory() / 4 / bytesPerTile);
+    }
+
+    /**
+     * Halts the request with 503 Service Unavailable and a Retry-After header unless the named
+     * subsystem is in the dataset the request uses: the one pinned for it, or else the current
+     * one. A request may have pinned the dataset just before the subsystem was published, so
+     * the pinned dataset is checked rather than the subsystem's startup future.
+     */
+    private static void requireReady(String subsystem, spark.Request req, spark.Response res) {
+        Dataset d = req.attribute(DATASET_ATTRIBUTE);
+        if (d == null) {
+            d = DATASET.get();
+        }
+        if (!d.has(subsystem)) {
+            res.header("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+            halt(SERVICE_UNAVAILABLE, "Server starting - " + subsystem + " is not ready yet.");
+        }
+    }
+
+    /** Returns "ready", "starting" or "failed" for the named subsystem. */
+    private static String subsystemState(String subsystem) {
+        CompletableFuture<?> f = SUBSYSTEMS.get(subsystem);
+        if (f == null || !f.isDone()) {
+            return "starting";
+        }
+        return f.isCompletedExceptionally() ? "failed" : "ready";
+    }
+
+    /**
+     * Reports the startup state of every subsystem.
+     * @return A map for the Json response: "ready" -> Boolean, whether every subsystem is
+     * ready, and "subsystems" -> a map from subsystem name to its state.
+     */
+    private static Map<String, Object> getReadiness() {
+        Map<String, String> states = new LinkedHashMap<>();
+        boolean ready = true;
+        for (String name : SUBSYSTEMS.keySet()) {
+            String state = subsystemState(name);
+            states.put(name, state);
+            ready = ready && state.equals("ready");
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("ready", ready);
+        result.put("subsystems", states);
+        return result;
+    }
+
+    /**
+     * Wraps an API route so that it only runs while holding a slot of API_GATE, with the
+     * current dataset pinned in the DATASET_ATTRIBUTE request attribute.
+     */
+    private static spark.Route gated(spark.Route route) {
+        return (req, res) -> admit(API_GATE, 1, res, () -> {
+            Dataset d = Dataset.pinCurrent(DATASET);
+            req.attribute(DATASET_ATTRIBUTE, d);
+            try {
+                return route.handle(req, res);
+            } finally {
+                d.unpin();
+            }
+        });
+    }
+
+    /**
+     * Halts the request with 403 unless it may use the admin endpoints: it must carry the
+     * bearmaps.admin.token system property in its X-Admin-Token header or, if no token is set,
+     * come from this machine.
+     */
+    private static void requireAdmin(spark.Request req) {
+        String token = System.getProperty("bearmaps.admin.token");
+        boolean allowed;
+        if (token != null) {
+            String given = req.headers("X-Admin-Token");
+            allowed = given != null && MessageDigest.isEqual(
+                    token.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8));
+        } else {
+            allowed = LOOPBACK_ADDRESSES.contains(req.ip());
+        }
+        if (!allowed) {
+            halt(HALT_RESPONSE, "Forbidden.");
+        }
+    }
+
+    /**
+     * Starts reloading the graph and tiles in the background, unless a reload is already
+     * running.
+     * @return true if a reload was started.
+     */
+    private static boolean startReload() {
+        if (!RELOADING.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread t = new Thread(() -> {
+            try {
+                reload();
+            } finally {
+                RELOADING.set(false);
+            }
+        }, "reload");
+        t.setDaemon(true);
+        t.start();
+        return true;
+    }
+
+    /**
+     * Builds a new dataset from OSM_DB_PATH and IMG_ROOT and swaps it in. Requests keep being
+     * served from the old one until then. Caches derived from the old dataset are invalidated
+     * right after the swap, and again once the requests still using it have drained, since
+     * those may have filled them in the meantime. The tiles drawn for the old dataset are then
+     * deleted too, unless the new one is of the same data. If the new data cannot be read, or
+     * has no roads, the old dataset is kept and the reload is reported as failed.
+     */
+    private static void reload() {
+        long start = System.nanoTime();
+        Map<String, Object> report = new HashMap<>();
+        report.put("started", System.currentTimeMillis());
+        try {
+            Dataset next = Dataset.load(OSM_DB_PATH, IMG_ROOT);
+            long built = System.nanoTime();
+            Dataset old = DATASET.getAndSet(next);
+            invalidateDatasetCaches();
+            boolean drained = old.awaitDrained(RELOAD_DRAIN_MILLIS);
+            invalidateDatasetCaches();
+            next.pruneRenderCaches();
+            report.put("outcome", "ok");
+            report.put("generation", next.generation());
+            report.put("build_ms", (built - start) / 1e6);
+            report.put("drain_ms", (System.nanoTime() - built) / 1e6);
+            report.put("drained", drained);
+            System.out.printf("dataset %d loaded in %d ms%n", next.generation(),
+                    (built - start) / 1000000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report.put("outcome", "interrupted");
+        } catch (RuntimeException | Error e) {
+            e.printStackTrace();
+            report.put("outcome", "failed");
+            report.put("error", e.toString());
+        }
+        Metrics.increment("bearmaps_reloads_total",
+                Metrics.labels("outcome", (String) report.get("outcome")), 1);
+        lastReload = report;
+    }
+
+    /**
+     * Drops the routes cached from the graph. They could no longer be hit, being keyed by the
+     * graph's snapshot, but would hold on to memory. Sessions keep their routes: a route whose
+     * vertices are gone from the new graph is simply not drawn; see RouteOverlay.
+     */
+    private static void invalidateDatasetCaches() {
+        Router.cache().clear();
+    }
+
+    /**
+     * Runs work while holding cost units of gate. If the gate cannot admit it, the request is
+     * halted with 503 Service Unavailable and a Retry-After header instead, or with 413 if it
+     * costs more than the gate could ever admit.
+     */
+    private static <T> T admit(AdmissionController gate, int cost, spark.Response res,
+                               Callable<T> work) throws Exception {
+        requireFits(gate, cost);
+        int units = gate.tryAcquire(cost);
+        if (units == 0) {
+            res.header("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+            halt(SERVICE_UNAVAILABLE, "Server overloaded - retry later.");
+        }
+        try {
+            return work.call();
+        } finally {
+            gate.release(units);
+        }
+    }
+
+    /** Returns rasterer's raster for params, halting the request with 413 if it is too large. */
+    private static Map<String, Object> getMapRaster(Rasterer rasterer,
+                                                    Map<String, Double> params) {
+        try {
+            return rasterer.getMapRaster(params);
+        } catch (IllegalArgumentException e) {
+            halt(REQUEST_TOO_LARGE, "Request too large - " + e.getMessage() + ".");
+            return null;
+        }
+    }
+
+    /** Returns tile (x, y) of depth of d, halting the request with 413 if it has too many
+     * roads. */
+    private static byte[] getVectorTile(Dataset d, int depth, int x, int y) {
+        try {
+            return VectorTile.encode(d.graph(), d.rasterer().pyramid(), depth, x, y,
+                    MAX_VECTOR_LOCATIONS, MAX_VECTOR_SEGMENTS);
+        } catch (IllegalArgumentException e) {
+            halt(REQUEST_TOO_LARGE, "Request too large - " + e.getMessage() + ".");
+            return null;
+        }
+    }
+
+    /** Halts the request with 413 if it costs more than gate could ever admit. */
+    private static void requireFits(AdmissionController gate, long cost) {
+        if (cost > Integer.MAX_VALUE || !gate.fits((int) cost)) {
+            halt(REQUEST_TOO_LARGE, "Request too large - ask for a smaller area or image.");
+        }
+    }
+
+    /**
+     * Returns how many tiles it takes to fill the w by h pixels requested. Tiles cover at most
+     * as much as a pixel of the query, so a raster of a box within the map needs at least this
+     * many; a request for a larger image is turned away even if its box reaches past the map.
+     * Halts the request unless w and h are positive.
+     */
+    private static long rasterCost(Map<String, Double> params) {
+        double w = params.get("w");
+        double h = params.get("h");
+        if (!(w > 0 && h > 0 && w < Integer.MAX_VALUE && h < Integer.MAX_VALUE)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - w and h must be positive.");
+        }
+        return (long) Math.ceil(w / TILE_SIZE) * (long) Math.ceil(h / TILE_SIZE);
+    }
+
+    /** Returns the latency histogram of one stage of handling endpoint. */
+    private static Histogram stageHistogram(String endpoint, String stage) {
+        return Metrics.histogram("bearmaps_stage_latency_seconds",
+                Metrics.labels("endpoint", endpoint, "stage", stage));
+    }
+
+    /** Returns the endpoint label to record path's metrics under. */
+    private static String endpointLabel(String path) {
+        if (path.startsWith("/vector/")) {
+            return "/vector";
+        }
+        return METERED_ENDPOINTS.contains(path) ? path : "other";
+    }
+
+    /** Describes the metrics and registers the gauges read on every /metrics scrape. */
+    private static void registerMetrics() {
+        Metrics.describe("bearmaps_request_latency_seconds", "Time to handle a request.");
+        Metrics.describe("bearmaps_stage_latency_seconds", "Time spent in one request stage.");
+        Metrics.describe("bearmaps_raster_tiles", "Tiles composited per raster request.");
+        Metrics.describe("bearmaps_route_settled_vertices", "Vertices settled per route search.");
+        Metrics.describe("bearmaps_route_results_total", "Route searches, by outcome.");
+        Metrics.describe("bearmaps_route_cache_hit_ratio", "Fraction of routes served cached.");
+        Metrics.describe("bearmaps_route_cache_bytes", "Approximate memory of cached routes.");
+        Metrics.describe("bearmaps_route_cache_entries", "Number of cached routes.");
+        Metrics.describe("bearmaps_route_sessions", "Sessions that have a route.");
+        Metrics.describe("bearmaps_reloads_total", "Dataset reloads, by outcome.");
+        Metrics.describe("bearmaps_dataset_generation", "Generation of the served dataset.");
+        Metrics.gauge("bearmaps_route_cache_hit_ratio", "", () -> Router.cache().hitRatio());
+        Metrics.gauge("bearmaps_route_cache_bytes", "", () -> Router.cache().memoryBytes());
+        Metrics.gauge("bearmaps_route_cache_entries", "", () -> Router.cache().size());
+        Metrics.gauge("bearmaps_route_sessions", "", ROUTES::size);
+        Metrics.gauge("bearmaps_dataset_generation", "", () -> DATASET.get().generation());
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
@@ -192,12 +915,206 @@ public class MapServer {
         return params;
     }
 
-    /** Writes the images corresponding to rasteredImgParams to the output stream.
+    /**
+     * Returns the optional integer parameter name of the request, clamped to [0, max], or
+     * defaultValue if it is absent.
+     */
+    private static int getLimitParam(spark.Request req, String name, int defaultValue,
+                                     int max) {
+        String value = req.queryParams(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Math.min(Integer.parseInt(value), max));
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            return defaultValue;
+        }
+    }
+
+    /** Returns the path parameter name, halting the request unless it is from 0 to max. */
+    private static int getPathParam(spark.Request req, String name, int max) {
+        try {
+            int value = Integer.parseInt(req.params(name));
+            if (value >= 0 && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        halt(HALT_RESPONSE, "Incorrect parameters - " + name + " is out of range.");
+        return 0;
+    }
+
+    /**
+     * Returns the session token of the client that sent req: the "session" query parameter if
+     * there is one, otherwise the session cookie, which is created if the client has none yet.
+     */
+    private static String session(spark.Request req, spark.Response res) {
+        String session = req.queryParams("session");
+        if (session == null) {
+            session = req.cookie(SESSION_COOKIE);
+        }
+        if (session == null) {
+            session = UUID.randomUUID().toString();
+            res.cookie("/", SESSION_COOKIE, session, -1, false);
+        }
+        return session;
+    }
+
+    /**
+     * Returns true if the client that sent req has closed its connection, so there is no point
+     * finishing the work for it. This is best effort: Jetty only notices a closed connection
+     * once it has tried to use it.
+     */
+    private static boolean clientDisconnected(spark.Request req) {
+        org.eclipse.jetty.server.Request base =
+                org.eclipse.jetty.server.Request.getBaseRequest(req.raw());
+        return base != null && !base.getHttpChannel().getEndPoint().isOpen();
+    }
+
+    /**
+     * Parses the JSON body of req into an instance of type, halting the request if the body is
+     * not valid JSON.
+     */
+    private static <T> T parseBody(spark.Request req, Type type) {
+        try {
+            Gson gson = new Gson();
+            return gson.fromJson(req.body(), type);
+        } catch (JsonParseException e) {
+            halt(HALT_RESPONSE, "Request failed - malformed JSON body.");
+            return null;
+        }
+    }
+
+    /**
+     * Validate & return the routes of a /routes request body, one {start_lon, start_lat,
+     * end_lon, end_lat} row per route.
+     * @param req HTTP Request whose body is a JSON array of route parameter objects.
+     */
+    private static double[][] getBatchRouteParams(spark.Request req) {
+        Type type = new TypeToken<List<Map<String, Double>>>() { }.getType();
+        List<Map<String, Double>> routes = parseBody(req, type);
+        if (routes == null) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        if (routes.size() > MAX_BATCH_ROUTES) {
+            halt(HALT_RESPONSE, "Request failed - too many routes.");
+        }
+        double[][] queries = new double[routes.size()][];
+        for (int i = 0; i < queries.length; i += 1) {
+            Map<String, Double> r = routes.get(i);
+            for (String param : REQUIRED_ROUTE_REQUEST_PARAMS) {
+                if (r == null || r.get(param) == null) {
+                    halt(HALT_RESPONSE, "Request failed - parameters missing.");
+                }
+            }
+            queries[i] = new double[] {r.get("start_lon"), r.get("start_lat"),
+                r.get("end_lon"), r.get("end_lat")};
+        }
+        return queries;
+    }
+
+    /**
+     * Computes the distances between every source and target of a /matrix request.
+     * @return A map for the Json response: "sources" -> number of rows, "targets" -> number of
+     * columns, "distances" -> the row-major distances, with -1 for pairs not reached, and
+     * "status" -> how the search from each source ended.
+     */
+    private static Map<String, Object> getDistanceMatrix(GraphDB graph, MatrixRequest m,
+                                                         RouteLimits limits)
+            throws InterruptedException {
+        double[][] src = toLonLatArrays(m.sources);
+        double[][] tgt = toLonLatArrays(m.targets);
+        Router.Matrix matrix = Router.distanceMatrix(graph, src[0], src[1], tgt[0], tgt[1],
+                limits);
+        double[] distances = matrix.distances;
+        for (int i = 0; i < distances.length; i += 1) {
+            if (Double.isInfinite(distances[i])) {
+                distances[i] = -1;
+            }
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("sources", m.sources.length);
+        result.put("targets", m.targets.length);
+        result.put("distances", distances);
+        String[] status = new String[matrix.status.length];
+        for (int i = 0; i < status.length; i += 1) {
+            status[i] = matrix.status[i].name();
+        }
+        result.put("status", status);
+        return result;
+    }
+
+    /**
+     * Finds the vertices within the requested distance budget of the requested point.
+     * @return A map for the Json response: "status" -> how the search ended, and either "hull"
+     * -> the [lon, lat] points of the convex hull of the reachable vertices, or the columns
+     * "id", "lon", "lat" and "distance" with one entry per reachable vertex.
+     */
+    private static Map<String, Object> getReachable(GraphDB graph, Map<String, Double> params,
+                                                    boolean hull, RouteLimits limits) {
+        Router.Reachable r = Router.reachable(graph, params.get("lon"), params.get("lat"),
+                params.get("budget"), limits);
+        Map<String, Object> result = new HashMap<>();
+        result.put("status", r.status.name());
+        if (hull) {
+            result.put("hull", Router.convexHull(graph, r.ids));
+            return result;
+        }
+        double[] lons = new double[r.ids.length];
+        double[] lats = new double[r.ids.length];
+        for (int i = 0; i < r.ids.length; i += 1) {
+            lons[i] = graph.lon(r.ids[i]);
+            lats[i] = graph.lat(r.ids[i]);
+        }
+        result.put("id", r.ids);
+        result.put("lon", lons);
+        result.put("lat", lats);
+        result.put("distance", r.distances);
+        return result;
+    }
+
+    /** Splits points into an array of longitudes and an array of latitudes. */
+    private static double[][] toLonLatArrays(LonLat[] points) {
+        double[][] lonLat = new double[2][points.length];
+        for (int i = 0; i < points.length; i += 1) {
+            if (points[i] == null) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide points.");
+            }
+            lonLat[0][i] = points[i].lon;
+            lonLat[1][i] = points[i].lat;
+        }
+        return lonLat;
+    }
+
+    /** Writes the images corresponding to rasteredImgParams, taken from rasterer, to the output
+     * stream, with route of graph drawn on top of them. The time spent in each stage is added to
+     * detail.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
     private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+                                                  Rasterer rasterer, GraphDB graph,
+                                                  RouteResult route,
+                                                  ByteArrayOutputStream os,
+                                                  Map<String, Object> detail) {
+        writeImagesToOutputStream(rasteredImageParams, rasterer, graph, route, os, detail, true);
+    }
+
+    /**
+     * Like writeImagesToOutputStream above, recording the time spent in each stage in the
+     * /raster stage histograms only if recordStages is true.
+     */
+    private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+                                                  Rasterer rasterer, GraphDB graph,
+                                                  RouteResult route,
+                                                  ByteArrayOutputStream os,
+                                                  Map<String, Object> detail,
+                                                  boolean recordStages) {
+        FlightEvents.RasterWrite event = new FlightEvents.RasterWrite();
+        event.begin();
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
@@ -205,18 +1122,20 @@ public class MapServer {
         BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
                 numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
         Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
 
+        long t = System.nanoTime();
+        BufferedImage[][] tiles = rasterer.tiles(renderGrid);
+        long read = System.nanoTime();
         for (int r = 0; r < numVertTiles; r += 1) {
             for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
+                graphic.drawImage(tiles[r][c], c * MapServer.TILE_SIZE, r * MapServer.TILE_SIZE,
+                        null);
             }
         }
+        long readNanos = read - t;
+        t = System.nanoTime();
+        long drawNanos = t - read;
+        long routeStart = t;
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -226,20 +1145,20 @@ public class MapServer {
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
+        int depth = ((Number) rasteredImageParams.get("depth")).intValue();
+        Path2D.Double routePath = route.overlay(graph).path(depth, ullon, ullat, wdpp, hdpp,
+                img.getWidth(), img.getHeight(), MapServer.ROUTE_STROKE_WIDTH_PX);
+        if (routePath != null) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                             (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            g2d.draw(routePath);
         }
 
+        t = System.nanoTime();
+        long routeNanos = t - routeStart;
+
         rasteredImageParams.put("raster_width", img.getWidth());
         rasteredImageParams.put("raster_height", img.getHeight());
 
@@ -248,38 +1167,80 @@ public class MapServer {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        long encodeNanos = System.nanoTime() - t;
+        if (recordStages) {
+            RASTER_READ_TILES.record(readNanos);
+            RASTER_COMPOSITE.record(drawNanos);
+            RASTER_TILES.record((long) numVertTiles * numHorizTiles);
+            RASTER_ROUTE.record(routeNanos);
+            RASTER_ENCODE.record(encodeNanos);
+        }
 
-    }
-
-    private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
+        detail.put("tiles", numVertTiles * numHorizTiles);
+        detail.put("read_tiles_ms", readNanos / 1e6);
+        detail.put("composite_ms", drawNanos / 1e6);
+        detail.put("route_overlay_ms", routeNanos / 1e6);
+        detail.put("encode_png_ms", encodeNanos / 1e6);
+        if (event.shouldCommit()) {
+            event.tiles = numVertTiles * numHorizTiles;
+            event.width = img.getWidth();
+            event.height = img.getHeight();
+            event.routeLength = route.path.length;
+            event.readNanos = readNanos;
+            event.compositeNanos = drawNanos;
+            event.routeNanos = routeNanos;
+            event.encodeNanos = encodeNanos;
+            event.bytes = os.size();
+            event.commit();
         }
-        return tileImg;
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Clear the current found route of session, if it exists.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    public static void clearRoute(String session) {
+        ROUTES.clear(session);
     }
 
     /**
-     * In linear time, collect all the names of OSM locations that prefix-match the query string.
+     * Collect all the names of OSM locations that prefix-match the query string, in time
+     * proportional to the length of the prefix plus the number of names found.
      * @param prefix Prefix string to be searched for. Could be any case, with our without
      *               punctuation.
      * @return A <code>List</code> of the full names of locations whose cleaned name matches the
      * cleaned <code>prefix</code>.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        return new LinkedList<>();
+        return getLocationsByPrefix(DATASET.get().graph(), prefix);
+    }
+
+    /** Like getLocationsByPrefix(prefix), searching graph rather than the current dataset. */
+    static List<String> getLocationsByPrefix(GraphDB graph, String prefix) {
+        return graph.locationsByPrefix(prefix);
+    }
+
+    /**
+     * Collect the names of the most important OSM locations that prefix-match the query string,
+     * in time proportional to the length of the prefix plus the number of names returned.
+     * @param graph The graph to search.
+     * @param prefix Prefix string to be searched for.
+     * @param limit Most names to return; at most GraphDB.AUTOCOMPLETE_K are ever returned.
+     * @return A <code>List</code> of the full names of the locations, most important first.
+     */
+    static List<String> getTopLocationsByPrefix(GraphDB graph, String prefix, int limit) {
+        return graph.topLocationsByPrefix(prefix, limit);
+    }
+
+    /**
+     * Collect the names of OSM locations that match the query string despite a few typos, in
+     * bounded time.
+     * @param graph The graph to search.
+     * @param query The possibly misspelled name, or start of a name.
+     * @param limit Most names to return.
+     * @return A <code>List</code> of the full names of the locations, closest first.
+     */
+    static List<String> getFuzzyLocations(GraphDB graph, String query, int limit) {
+        return graph.fuzzyLocations(query, limit);
     }
 
     /**
@@ -295,7 +1256,12 @@ public class MapServer {
      * "id" -> Number, The id of the node. <br>
      */
     public static List<Map<String, Object>> getLocations(String locationName) {
-        return new LinkedList<>();
+        return getLocations(DATASET.get().graph(), locationName);
+    }
+
+    /** Like getLocations(locationName), searching graph rather than the current dataset. */
+    static List<Map<String, Object>> getLocations(GraphDB graph, String locationName) {
+        return graph.locationsNamed(locationName);
     }
 
     /** Validates that Rasterer has returned a result that can be rendered.
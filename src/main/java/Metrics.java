@@ -0,0 +1,112 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide registry of the server's metrics, rendered in the Prometheus text exposition
+ * format by the /metrics endpoint. There are three kinds: histograms (exported as summaries with
+ * a few quantiles), counters and gauges. A metric is identified by its name and a label string
+ * such as <code>endpoint="/raster",stage="encode"</code>. Histograms whose name ends in
+ * "_seconds" are recorded in nanoseconds and exported in seconds.
+ */
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final Map<String, String> HELP = new ConcurrentHashMap<>();
+    private static final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, Histogram>>
+            HISTOGRAMS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String, LongAdder>>
+            COUNTERS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentSkipListMap<String, ConcurrentSkipListMap<String,
+            DoubleSupplier>> GAUGES = new ConcurrentSkipListMap<>();
+
+    /** Sets the description shown for metric name. */
+    public static void describe(String name, String help) {
+        HELP.put(name, help);
+    }
+
+    /** Returns the histogram name{labels}, creating it if need be. */
+    public static Histogram histogram(String name, String labels) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(labels, l -> new Histogram());
+    }
+
+    /** Adds n to the counter name{labels}. */
+    public static void increment(String name, String labels, long n) {
+        COUNTERS.computeIfAbsent(name, k -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(labels, l -> new LongAdder()).add(n);
+    }
+
+    /** Registers a gauge whose value is read from value on every scrape. */
+    public static void gauge(String name, String labels, DoubleSupplier value) {
+        GAUGES.computeIfAbsent(name, k -> new ConcurrentSkipListMap<>()).put(labels, value);
+    }
+
+    /** Builds a label string from alternating label names and values. */
+    public static String labels(String... namesAndValues) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(namesAndValues[i]).append("=\"")
+                    .append(namesAndValues[i + 1].replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+        }
+        return sb.toString();
+    }
+
+    /** Renders every metric in the Prometheus text format. */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, ConcurrentSkipListMap<String, Histogram>> family
+                : HISTOGRAMS.entrySet()) {
+            String name = family.getKey();
+            double scale = name.endsWith("_seconds") ? 1 / NANOS_PER_SECOND : 1;
+            header(sb, name, "summary");
+            for (Map.Entry<String, Histogram> m : family.getValue().entrySet()) {
+                Histogram h = m.getValue();
+                for (double q : QUANTILES) {
+                    String labels = m.getKey().isEmpty() ? "" : m.getKey() + ",";
+                    sample(sb, name, labels + "quantile=\"" + q + "\"", h.quantile(q) * scale);
+                }
+                sample(sb, name + "_sum", m.getKey(), h.sum() * scale);
+                sample(sb, name + "_count", m.getKey(), h.count());
+            }
+        }
+        for (Map.Entry<String, ConcurrentSkipListMap<String, LongAdder>> family
+                : COUNTERS.entrySet()) {
+            header(sb, family.getKey(), "counter");
+            for (Map.Entry<String, LongAdder> m : family.getValue().entrySet()) {
+                sample(sb, family.getKey(), m.getKey(), m.getValue().sum());
+            }
+        }
+        for (Map.Entry<String, ConcurrentSkipListMap<String, DoubleSupplier>> family
+                : GAUGES.entrySet()) {
+            header(sb, family.getKey(), "gauge");
+            for (Map.Entry<String, DoubleSupplier> m : family.getValue().entrySet()) {
+                sample(sb, family.getKey(), m.getKey(), m.getValue().getAsDouble());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type) {
+        String help = HELP.get(name);
+        if (help != null) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        }
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+}
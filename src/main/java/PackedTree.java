@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/**
+ * The nodes of a packed R-tree built by Sort-Tile-Recursive, shared by PointIndex and
+ * SegmentIndex: the items are sorted into vertical slices by x and by y within each slice, then
+ * packed NODE_SIZE to a leaf, and the leaves NODE_SIZE to a parent, up to a single root. Node
+ * boxes are kept in flat arrays; the indexes keep their items' coordinates themselves, in tree
+ * order, and walk the tree as their queries need.
+ */
+final class PackedTree {
+    static final int NODE_SIZE = 16;
+
+    /** The original position of each item, in tree order. */
+    final int[] items;
+    /** Nodes of level l are levelStart[l] through levelStart[l + 1] - 1 in the box arrays; level
+     * 0 holds the leaves, and the last level the root. Node i of a level has children i *
+     * NODE_SIZE onwards in the level below, or in the items for a leaf. */
+    final int[] levelStart;
+    final double[] minX;
+    final double[] minY;
+    final double[] maxX;
+    final double[] maxY;
+
+    /**
+     * Builds the tree over the items whose positions are sorted by (sortX[i], sortY[i]) and
+     * whose boxes run from (boxMinX[i], boxMinY[i]) to (boxMaxX[i], boxMaxY[i]).
+     */
+    PackedTree(double[] sortX, double[] sortY, double[] boxMinX, double[] boxMinY,
+               double[] boxMaxX, double[] boxMaxY) {
+        int n = sortX.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(sortX[a], sortX[b]));
+        int leaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+        int perSlice = NODE_SIZE * (int) Math.ceil(Math.sqrt(leaves));
+        for (int start = 0; start < n; start += perSlice) {
+            Arrays.sort(order, start, Math.min(n, start + perSlice),
+                    (a, b) -> Double.compare(sortY[a], sortY[b]));
+        }
+        items = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            items[i] = order[i];
+        }
+
+        int levels = 1;
+        int total = Math.max(1, leaves);
+        for (int count = Math.max(1, leaves); count > 1; count = up(count)) {
+            levels += 1;
+            total += up(count);
+        }
+        levelStart = new int[levels + 1];
+        minX = new double[total];
+        minY = new double[total];
+        maxX = new double[total];
+        maxY = new double[total];
+        Arrays.fill(minX, Double.POSITIVE_INFINITY);
+        Arrays.fill(minY, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxX, Double.NEGATIVE_INFINITY);
+        Arrays.fill(maxY, Double.NEGATIVE_INFINITY);
+        levelStart[1] = Math.max(1, leaves);
+        for (int i = 0; i < n; i += 1) {
+            int s = items[i];
+            include(i / NODE_SIZE, boxMinX[s], boxMinY[s], boxMaxX[s], boxMaxY[s]);
+        }
+        for (int l = 1; l < levels; l += 1) {
+            int count = levelStart[l] - levelStart[l - 1];
+            levelStart[l + 1] = levelStart[l] + up(count);
+            for (int i = 0; i < count; i += 1) {
+                int child = levelStart[l - 1] + i;
+                include(levelStart[l] + i / NODE_SIZE, minX[child], minY[child], maxX[child],
+                        maxY[child]);
+            }
+        }
+    }
+
+    /** Returns the level of the root. */
+    int rootLevel() {
+        return levelStart.length - 2;
+    }
+
+    /** Returns the number of children of the nodes at level l: nodes, or items for leaves. */
+    int childCount(int l) {
+        return l == 0 ? items.length : levelStart[l] - levelStart[l - 1];
+    }
+
+    /** Returns whether the box of node g overlaps the given box. */
+    boolean overlaps(int g, double west, double south, double east, double north) {
+        return minX[g] <= east && maxX[g] >= west && minY[g] <= north && maxY[g] >= south;
+    }
+
+    /** Returns the distance from (x, y) to the box of node g, 0 if inside. */
+    double boxDistance(int g, double x, double y) {
+        double dx = Math.max(0, Math.max(minX[g] - x, x - maxX[g]));
+        double dy = Math.max(0, Math.max(minY[g] - y, y - maxY[g]));
+        return Math.hypot(dx, dy);
+    }
+
+    private void include(int g, double x0, double y0, double x1, double y1) {
+        minX[g] = Math.min(minX[g], x0);
+        minY[g] = Math.min(minY[g], y0);
+        maxX[g] = Math.max(maxX[g], x1);
+        maxY[g] = Math.max(maxY[g], y1);
+    }
+
+    private static int up(int count) {
+        return (count + NODE_SIZE - 1) / NODE_SIZE;
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable spatial index over points, a packed R-tree built by Sort-Tile-Recursive (see
+ * PackedTree) with the points kept in flat arrays in tree order.
+ *
+ * Points are referred to by their position in the arrays the index was built from. Distances
+ * are Euclidean in degrees, like GraphDB.distance.
+ */
+public class PointIndex {
+    private static final int NODE_SIZE = PackedTree.NODE_SIZE;
+
+    private final PackedTree tree;
+    /** The points' coordinates and original positions, in tree order. */
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] items;
+
+    /**
+     * @param lons The longitude of each point.
+     * @param lats The latitude of each point.
+     */
+    public PointIndex(double[] lons, double[] lats) {
+        tree = new PackedTree(lons, lats, lons, lats, lons, lats);
+        items = tree.items;
+        int n = items.length;
+        xs = new double[n];
+        ys = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            xs[i] = lons[items[i]];
+            ys[i] = lats[items[i]];
+        }
+    }
+
+    /** Returns the number of points indexed. */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Returns the positions of up to limit points inside the box and accepted by accept, in no
+     * particular order.
+     */
+    public int[] within(double west, double south, double east, double north,
+                        IntPredicate accept, int limit) {
+        int[] found = new int[Math.min(limit, 64)];
+        int count = 0;
+        int[] stack = new int[64];
+        int[] stackLevel = new int[64];
+        int top = 0;
+        stack[top] = 0;
+        stackLevel[top] = tree.rootLevel();
+        top += 1;
+        while (top > 0 && count < limit) {
+            top -= 1;
+            int i = stack[top];
+            int l = stackLevel[top];
+            if (!tree.overlaps(tree.levelStart[l] + i, west, south, east, north)) {
+                continue;
+            }
+            int end = Math.min(tree.childCount(l), (i + 1) * NODE_SIZE);
+            for (int c = i * NODE_SIZE; c < end; c += 1) {
+                if (l > 0) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        stackLevel = Arrays.copyOf(stackLevel, top * 2);
+                    }
+                    stack[top] = c;
+                    stackLevel[top] = l - 1;
+                    top += 1;
+                } else if (xs[c] >= west && xs[c] <= east && ys[c] >= south && ys[c] <= north
+                        && accept.test(items[c]) && count < limit) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, Math.min(limit, count * 2));
+                    }
+                    found[count] = items[c];
+                    count += 1;
+                }
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Returns the positions of the k points closest to (lon, lat) accepted by accept, closest
+     * first. Nodes are visited best first, by the distance to their box, so only the part of
+     * the tree near the point is looked at.
+     */
+    public int[] nearest(double lon, double lat, int k, IntPredicate accept) {
+        int[] found = new int[Math.max(0, Math.min(k, items.length))];
+        int count = 0;
+        /* A binary min-heap of tree nodes (level >= 0) and points (level -1) by distance. */
+        double[] keys = new double[64];
+        int[] refs = new int[64];
+        int[] levels = new int[64];
+        int size = 0;
+        if (items.length > 0 && k > 0) {
+            keys[0] = 0;
+            refs[0] = 0;
+            levels[0] = tree.rootLevel();
+            size = 1;
+        }
+        while (size > 0 && count < found.length) {
+            int ref = refs[0];
+            int l = levels[0];
+            size -= 1;
+            keys[0] = keys[size];
+            refs[0] = refs[size];
+            levels[0] = levels[size];
+            siftDown(keys, refs, levels, size);
+            if (l < 0) {
+                if (accept.test(items[ref])) {
+                    found[count] = items[ref];
+                    count += 1;
+                }
+                continue;
+            }
+            int end = Math.min(tree.childCount(l), (ref + 1) * NODE_SIZE);
+            for (int c = ref * NODE_SIZE; c < end; c += 1) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    refs = Arrays.copyOf(refs, size * 2);
+                    levels = Arrays.copyOf(levels, size * 2);
+                }
+                if (l > 0) {
+                    keys[size] = tree.boxDistance(tree.levelStart[l - 1] + c, lon, lat);
+                } else {
+                    keys[size] = Math.hypot(xs[c] - lon, ys[c] - lat);
+                }
+                refs[size] = c;
+                levels[size] = l - 1;
+                siftUp(keys, refs, levels, size);
+                size += 1;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    private static void siftUp(double[] keys, int[] refs, int[] levels, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (keys[parent] <= keys[i]) {
+                return;
+            }
+            swap(keys, refs, levels, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(double[] keys, int[] refs, int[] levels, int size) {
+        int i = 0;
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && keys[left] < keys[smallest]) {
+                smallest = left;
+            }
+            if (right < size && keys[right] < keys[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(keys, refs, levels, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(double[] keys, int[] refs, int[] levels, int i, int j) {
+        double k = keys[i];
+        keys[i] = keys[j];
+        keys[j] = k;
+        int r = refs[i];
+        refs[i] = refs[j];
+        refs[j] = r;
+        int l = levels[i];
+        levels[i] = levels[j];
+        levels[j] = l;
+    }
+}
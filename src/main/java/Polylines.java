@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+/**
+ * Operations on polylines given as parallel arrays of x and y coordinates, shared by the vector
+ * tiles and the route overlay. Coordinates are plain Euclidean ones, such as pixels or tile
+ * units; project degrees onto the plane being drawn before using these.
+ */
+public class Polylines {
+    /**
+     * Simplifies the polyline through points from through to - 1 by Douglas-Peucker: a point
+     * is kept only if leaving it out would move the line by more than tolerance. The first and
+     * last points are always kept.
+     * @return The positions of the points kept, in order.
+     */
+    public static int[] simplify(double[] xs, double[] ys, int from, int to, double tolerance) {
+        int n = to - from;
+        if (n <= 2) {
+            int[] all = new int[Math.max(0, n)];
+            for (int i = 0; i < all.length; i += 1) {
+                all[i] = from + i;
+            }
+            return all;
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int kept = 2;
+        double tolerance2 = tolerance * tolerance;
+        /* The spans still to be split, as pairs of first and last positions. */
+        int[] stack = new int[64];
+        stack[0] = from;
+        stack[1] = to - 1;
+        int top = 2;
+        while (top > 0) {
+            top -= 2;
+            int first = stack[top];
+            int last = stack[top + 1];
+            double farthest = tolerance2;
+            int split = -1;
+            for (int i = first + 1; i < last; i += 1) {
+                double d = distance2(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+                if (d > farthest) {
+                    farthest = d;
+                    split = i;
+                }
+            }
+            if (split < 0) {
+                continue;
+            }
+            keep[split - from] = true;
+            kept += 1;
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top] = first;
+            stack[top + 1] = split;
+            stack[top + 2] = split;
+            stack[top + 3] = last;
+            top += 4;
+        }
+        int[] result = new int[kept];
+        int k = 0;
+        for (int i = 0; i < n; i += 1) {
+            if (keep[i]) {
+                result[k] = from + i;
+                k += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Clips the segment from (s[0], s[1]) to (s[2], s[3]) to the box from (minX, minY) to
+     * (maxX, maxY) by Liang-Barsky, moving its ends in place.
+     * @return false if no part of the segment is in the box, in which case s is unchanged.
+     */
+    public static boolean clip(double[] s, double minX, double minY, double maxX, double maxY) {
+        double dx = s[2] - s[0];
+        double dy = s[3] - s[1];
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {s[0] - minX, maxX - s[0], s[1] - minY, maxY - s[1]};
+        double enter = 0;
+        double leave = 1;
+        for (int i = 0; i < 4; i += 1) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else if (p[i] < 0) {
+                enter = Math.max(enter, q[i] / p[i]);
+            } else {
+                leave = Math.min(leave, q[i] / p[i]);
+            }
+        }
+        if (enter > leave) {
+            return false;
+        }
+        double x0 = s[0];
+        double y0 = s[1];
+        s[0] = x0 + enter * dx;
+        s[1] = y0 + enter * dy;
+        s[2] = x0 + leave * dx;
+        s[3] = y0 + leave * dy;
+        return true;
+    }
+
+    /** Returns the squared distance from (x, y) to the segment from (ax, ay) to (bx, by). */
+    static double distance2(double x, double y, double ax, double ay, double bx, double by) {
+        double t = SegmentIndex.projection(ax, ay, bx, by, x, y);
+        double dx = ax + t * (bx - ax) - x;
+        double dy = ay + t * (by - ay) - y;
+        return dx * dx + dy * dy;
+    }
+}
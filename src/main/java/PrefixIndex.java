@@ -0,0 +1,239 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable index from cleaned location names (see GraphDB.cleanString) to the original names,
+ * answering prefix queries in time proportional to the prefix length plus the number of results.
+ * Each name has a score, and every prefix also has its k best scoring names precomputed, so that
+ * autocomplete can return the best few names for a short prefix without sorting anything.
+ *
+ * The original names are kept sorted by cleaned name in one array, so the names under any prefix
+ * form a contiguous range of it. A character trie over the cleaned names, stored in parallel
+ * arrays, maps a prefix to that range: node i has the character label[i], its children are
+ * firstChild[i], nextSibling[firstChild[i]], ... in character order, and the names below it are
+ * names[lo[i]] through names[hi[i] - 1]. The positions in names of its best names, best first,
+ * are top[topStart[i]] through top[topStart[i + 1] - 1].
+ */
+public class PrefixIndex {
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    private final String[] names;
+    private final double[] scores;
+    private final int k;
+    private char[] label = new char[16];
+    private int[] firstChild = new int[16];
+    private int[] nextSibling = new int[16];
+    private int[] lo = new int[16];
+    private int[] hi = new int[16];
+    private int nodes;
+    private int[] topStart;
+    private int[] top;
+
+    /**
+     * @param entries Original names; each is indexed under its cleaned form, once however many
+     *                times it occurs.
+     * @param entryScores The score of each entry. A name scores the sum of its entries' scores.
+     * @param k How many of the best names to precompute for each prefix.
+     */
+    public PrefixIndex(List<String> entries, double[] entryScores, int k) {
+        TreeMap<String, TreeMap<String, Double>> byKey = new TreeMap<>();
+        for (int i = 0; i < entries.size(); i += 1) {
+            String name = entries.get(i);
+            byKey.computeIfAbsent(GraphDB.cleanString(name), key -> new TreeMap<>())
+                    .merge(name, entryScores[i], Double::sum);
+        }
+        List<String> sorted = new ArrayList<>();
+        List<Double> sortedScores = new ArrayList<>();
+        newNode('\0');
+        for (Map.Entry<String, TreeMap<String, Double>> e : byKey.entrySet()) {
+            for (Map.Entry<String, Double> name : e.getValue().entrySet()) {
+                insert(e.getKey(), sorted.size());
+                sorted.add(name.getKey());
+                sortedScores.add(name.getValue());
+            }
+        }
+        names = sorted.toArray(new String[0]);
+        scores = new double[names.length];
+        for (int i = 0; i < scores.length; i += 1) {
+            scores[i] = sortedScores.get(i);
+        }
+        this.k = k;
+        label = Arrays.copyOf(label, nodes);
+        firstChild = Arrays.copyOf(firstChild, nodes);
+        nextSibling = Arrays.copyOf(nextSibling, nodes);
+        lo = Arrays.copyOf(lo, nodes);
+        hi = Arrays.copyOf(hi, nodes);
+        rank();
+    }
+
+    /**
+     * Returns the distinct original names whose cleaned form starts with the cleaned prefix,
+     * ordered by cleaned name.
+     */
+    public List<String> withPrefix(String prefix) {
+        int node = find(GraphDB.cleanString(prefix));
+        if (node == NONE) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(names).subList(lo[node], hi[node]));
+    }
+
+    /**
+     * Returns the best scoring names whose cleaned form starts with the cleaned prefix, best
+     * first, at most min(limit, k) of them. Ties go to the name first in cleaned order.
+     */
+    public List<String> topWithPrefix(String prefix, int limit) {
+        int node = find(GraphDB.cleanString(prefix));
+        if (node == NONE) {
+            return Collections.emptyList();
+        }
+        int n = Math.max(0, Math.min(limit, topStart[node + 1] - topStart[node]));
+        List<String> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i += 1) {
+            result.add(names[top[topStart[node] + i]]);
+        }
+        return result;
+    }
+
+    /** Returns how many of the best names are precomputed for each prefix. */
+    public int k() {
+        return k;
+    }
+
+    /** Returns the number of distinct names indexed. */
+    public int size() {
+        return names.length;
+    }
+
+    /** Returns the trie node reached by key from the root, or NONE if there is none. */
+    private int find(String key) {
+        int node = ROOT;
+        for (int i = 0; i < key.length() && node != NONE; i += 1) {
+            node = child(node, key.charAt(i));
+        }
+        return node;
+    }
+
+    /** Returns the child of node labelled c, or NONE. */
+    private int child(int node, char c) {
+        int x = firstChild[node];
+        while (x != NONE && label[x] < c) {
+            x = nextSibling[x];
+        }
+        return x != NONE && label[x] == c ? x : NONE;
+    }
+
+    /**
+     * Adds the name at position index of the sorted names under key. Names arrive in key
+     * order, so a new child always goes last among its siblings, and every node's range only
+     * ever grows at its end.
+     */
+    private void insert(String key, int index) {
+        int node = ROOT;
+        extend(node, index);
+        for (int i = 0; i < key.length(); i += 1) {
+            char c = key.charAt(i);
+            int last = lastChild(node);
+            if (last != NONE && label[last] == c) {
+                node = last;
+            } else {
+                int x = newNode(c);
+                if (last == NONE) {
+                    firstChild[node] = x;
+                } else {
+                    nextSibling[last] = x;
+                }
+                node = x;
+            }
+            extend(node, index);
+        }
+    }
+
+    /**
+     * Precomputes the best k names of every node. A node's best names are among the names that
+     * end at it and the best names of its children, so the nodes are ranked children first;
+     * children were created after their parents, so that is simply in reverse.
+     */
+    private void rank() {
+        int[][] best = new int[nodes][];
+        int total = 0;
+        for (int node = nodes - 1; node >= 0; node -= 1) {
+            int ownEnd = firstChild[node] == NONE ? hi[node] : lo[firstChild[node]];
+            TreeSet<Integer> candidates = new TreeSet<>(this::compareRank);
+            for (int i = lo[node]; i < ownEnd; i += 1) {
+                offer(candidates, i);
+            }
+            for (int x = firstChild[node]; x != NONE; x = nextSibling[x]) {
+                for (int i : best[x]) {
+                    offer(candidates, i);
+                }
+            }
+            best[node] = new int[candidates.size()];
+            int j = 0;
+            for (int i : candidates) {
+                best[node][j] = i;
+                j += 1;
+            }
+            total += best[node].length;
+        }
+        topStart = new int[nodes + 1];
+        top = new int[total];
+        for (int node = 0; node < nodes; node += 1) {
+            System.arraycopy(best[node], 0, top, topStart[node], best[node].length);
+            topStart[node + 1] = topStart[node] + best[node].length;
+        }
+    }
+
+    /** Adds name i to candidates, keeping only the best k. */
+    private void offer(TreeSet<Integer> candidates, int i) {
+        candidates.add(i);
+        if (candidates.size() > k) {
+            candidates.pollLast();
+        }
+    }
+
+    /** Orders name positions best first: by score, then by position. */
+    private int compareRank(int a, int b) {
+        int c = Double.compare(scores[b], scores[a]);
+        return c != 0 ? c : Integer.compare(a, b);
+    }
+
+    private int lastChild(int node) {
+        int x = firstChild[node];
+        while (x != NONE && nextSibling[x] != NONE) {
+            x = nextSibling[x];
+        }
+        return x;
+    }
+
+    private void extend(int node, int index) {
+        if (lo[node] == hi[node]) {
+            lo[node] = index;
+        }
+        hi[node] = index + 1;
+    }
+
+    private int newNode(char c) {
+        if (nodes == label.length) {
+            int capacity = nodes * 2;
+            label = Arrays.copyOf(label, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            lo = Arrays.copyOf(lo, capacity);
+            hi = Arrays.copyOf(hi, capacity);
+        }
+        label[nodes] = c;
+        firstChild[nodes] = NONE;
+        nextSibling[nodes] = NONE;
+        lo[nodes] = 0;
+        hi[nodes] = 0;
+        nodes += 1;
+        return nodes - 1;
+    }
+}
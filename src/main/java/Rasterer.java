@@ -1,9 +1,14 @@
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Comparator;
-import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -11,118 +16,64 @@ import java.util.Iterator;
  * a query result. The getMapRaster method must return a Map containing all
  * seven of the required fields, otherwise the front end code will probably
  * not draw the output correctly.
+ *
+ * The tiles are those of a TilePyramid, whose extent and depth come from the image directory's
+ * tileset.json, and are found arithmetically rather than by walking a tree, so rastering takes
+ * the same time and memory however deep the pyramid is.
  */
 public class Rasterer {
-    // Recommended: QuadTree instance variable. You'll need to make
-    //              your own QuadTree since there is no built-in quadtree in Java.
-
-
-        private class QuadTreeNode implements Comparable<QuadTreeNode> {
-            private String fileName;
-            private double ulLon;
-            private double ulLat;
-            private double lrLon;
-            private double lrLat;
-            private int depth;
-            private double lonDPP;
-
-            private QuadTreeNode NE;
-            private QuadTreeNode NW;
-            private QuadTreeNode SW;
-            private QuadTreeNode SE;
-
-            //Constructor recursively builds quadtree by adding to NE, NW, SW, SE
-            private QuadTreeNode(String fileName, double ulLon, double ulLat,
-                                 double lrLon, double lrLat, int depth) {
-                this.fileName = fileName;
-                this.ulLon = ulLon;
-                this.ulLat = ulLat;
-                this.lrLon = lrLon;
-                this.lrLat = lrLat;
-                this.depth = depth;
-
-                if (depth < 7) {
-                    makeChildren(this);
-                }
-
-            }
-
-            private void makeChildren(QuadTreeNode x) {
-                if (x.depth < 7) {
-                    String name = null;
-                    if (this.fileName.equals("root")) {
-                        name = "";
-                    } else {
-                        name = x.fileName;
-                    }
-                    double centerlon = (x.lrLon + x.ulLon) / 2;
-                    double centerlat = (x.lrLat + x.ulLat) / 2;
-
-                    x.NW = new QuadTreeNode(name + "1", x.ulLon, x.ulLat, centerlon,
-                            centerlat, depth + 1);
-                    x.NE = new QuadTreeNode(name + "2", centerlon, ulLat, lrLon,
-                            centerlat, depth + 1);
-                    x.SW = new QuadTreeNode(name + "3", ulLon, centerlat,
-                            centerlon, lrLat, depth + 1);
-                    x.SE = new QuadTreeNode(name + "4", centerlon,
-                            centerlat, lrLon, lrLat, depth + 1);
-                }
-            }
-
-
-
-            public int compareTo(QuadTreeNode qtn) {
-                if (this.ulLon < qtn.ulLon) {
-                    if (this.ulLat >= qtn.ulLat) {
-                        return -1;
-                    }
-                } else if (this.ulLat > qtn.ulLat) {
-                    if (this.ulLon >= qtn.ulLon) {
-                        return -1;
-                    }
-                }
-                return 1;
-            }
-
-
-        }
-
-
-
-
-//        private QuadTree() {
-//            root = new QuadTreeNode("root", MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
-//                    MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, 0);
-//        }
+    /**
+     * Worker threads for loading the tiles of a raster, which may have to be drawn. The queue
+     * is bounded; once it is full, the request thread loads the tile itself.
+     */
+    private static final ExecutorService TILE_POOL = newTilePool(Integer.getInteger(
+            "bearmaps.render.threads", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("bearmaps.render.queue", 1024));
 
+    /** Most tiles a raster may have; larger ones are refused before anything is allocated. */
+    static final int MAX_TILES = Integer.getInteger("bearmaps.raster.maxTiles", 1024);
 
+    private final TilePyramid pyramid;
+    private final TileSource source;
 
+    /** imgRoot is the name of the directory containing the images. */
+    public Rasterer(String imgroot) {
+        this(TilePyramid.read(imgroot));
+    }
 
-    private QuadTreeNode q;
+    /** Rasters the tiles of pyramid, reading their images from its files. */
+    public Rasterer(TilePyramid pyramid) {
+        this(pyramid, pyramid.files());
+    }
 
+    /** Rasters the tiles of pyramid, taking their images from source. */
+    public Rasterer(TilePyramid pyramid, TileSource source) {
+        this.pyramid = pyramid;
+        this.source = source;
+    }
 
-    /** imgRoot is the name of the directory containing the images.
-     *  You may not actually need this for your class. */
-    public Rasterer(String imgroot) {
-        q = new Rasterer.QuadTreeNode("root", MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
-                    MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, 0);
+    private static ExecutorService newTilePool(int threads, int queue) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, "raster-tiles");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
 
+    /** Returns a rasterer of the same pyramid that takes its images from source. */
+    public Rasterer withSource(TileSource s) {
+        return new Rasterer(pyramid, s);
+    }
 
+    public TilePyramid pyramid() {
+        return pyramid;
     }
 
-    public class QuadTreeNodeComparator implements Comparator<QuadTreeNode> {
-        public int compare(QuadTreeNode n1, QuadTreeNode n2) {
-            if (n1.ulLon < n2.ulLon) {
-                if (n1.ulLat >= n2.ulLat) {
-                    return -1;
-                }
-            } else if (n1.ulLat > n2.ulLat) {
-                if (n1.ulLon >= n2.ulLon) {
-                    return -1;
-                }
-            }
-            return 1;
-        }
+    public TileSource source() {
+        return source;
     }
 
     /**
@@ -154,17 +105,79 @@ public class Rasterer {
      *                    string. <br>
      * "query_success" -> Boolean, whether the query was able to successfully complete. Don't
      *                    forget to set this to true! <br>
+     * @throws IllegalArgumentException if the raster would have more than MAX_TILES tiles.
      * @see #
      */
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
+        FlightEvents.Raster event = new FlightEvents.Raster();
+        event.begin();
+        Map<String, Object> results = rasterize(params);
+        if (event.shouldCommit()) {
+            event.ullon = params.get("ullon");
+            event.ullat = params.get("ullat");
+            event.lrlon = params.get("lrlon");
+            event.lrlat = params.get("lrlat");
+            event.width = params.get("w");
+            event.height = params.get("h");
+            event.success = (boolean) results.get("query_success");
+            if (event.success) {
+                String[][] grid = (String[][]) results.get("render_grid");
+                event.depth = (int) results.get("depth");
+                event.tiles = grid.length * grid[0].length;
+            }
+            event.commit();
+        }
+        return results;
+    }
 
+    /**
+     * Returns the image of the tile whose path is in a render_grid returned by getMapRaster,
+     * stretched from an ancestor tile if the source does not have it, or null if path is not
+     * the path of a tile.
+     */
+    public BufferedImage tile(String path) {
+        int[] t = pyramid.locate(path);
+        return t == null ? null : pyramid.image(source, t[0], t[1], t[2]);
+    }
+
+    /**
+     * Returns the images of the tiles of a render_grid, as tile does, in the same arrangement.
+     * The tiles are loaded in parallel, since a source may draw them.
+     */
+    public BufferedImage[][] tiles(String[][] grid) {
+        BufferedImage[][] images = new BufferedImage[grid.length][];
+        List<Future<BufferedImage>> futures = new ArrayList<>();
+        for (String[] row : grid) {
+            for (String path : row) {
+                futures.add(TILE_POOL.submit(() -> tile(path)));
+            }
+        }
+        int i = 0;
+        for (int r = 0; r < grid.length; r += 1) {
+            images[r] = new BufferedImage[grid[r].length];
+            for (int c = 0; c < grid[r].length; c += 1) {
+                try {
+                    images[r][c] = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while loading tiles", e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Could not load " + grid[r][c], e.getCause());
+                }
+                i += 1;
+            }
+        }
+        return images;
+    }
+
+    private Map<String, Object> rasterize(Map<String, Double> params) {
         Map<String, Object> results = new HashMap<>();
 
         double ullon = params.get("ullon");
         double ullat = params.get("ullat");
         double lrlat = params.get("lrlat");
         double lrlon = params.get("lrlon");
-        if (!checkInput(ullon, ullat, lrlon, lrlat)) {
+        if (ullon > lrlon || lrlat > ullat || !pyramid.intersects(ullon, ullat, lrlon, lrlat)) {
             results.put("depth", 0.0);
             results.put("raster_ul_lon", 0.0);
             results.put("raster_lr_lon", 0.0);
@@ -173,108 +186,41 @@ public class Rasterer {
             results.put("raster_ul_lat", 0.0);
             results.put("render_grid", null);
             return results;
-
         }
 
-        ArrayList<QuadTreeNode> ql = new ArrayList<>();
-        getFiles(q, params.get("lrlon"), params.get("ullon"), params.get("ullat"),
-                params.get("lrlat"), params.get("w"), ql);
-
-        Collections.sort(ql);
-        results.put("depth", ql.get(0).depth);
-        results.put("raster_ul_lon", ql.get(0).ulLon);
-        results.put("raster_lr_lon", ql.get(ql.size() - 1).lrLon);
-        results.put("query_success", true);
-        results.put("raster_lr_lat", ql.get(ql.size() - 1).lrLat);
-        results.put("raster_ul_lat", ql.get(0).ulLat);
-        results.put("render_grid", imageArray(ql));
-
-        return results;
-    }
-
-    public boolean checkInput (double ullon, double ullat, double lrlon, double lrlat) {
-        if (ullon > lrlon || lrlat > ullat) {
-            return false;
-        } if (lrlon < MapServer.ROOT_ULLON || lrlat > MapServer.ROOT_ULLAT || ullon > MapServer.ROOT_LRLON
-                || ullat < MapServer.ROOT_LRLAT
-                ) {
-            return false;
+        /* The tiles of the chosen depth that overlap the query box, edges excluded. */
+        int depth = pyramid.depthFor((lrlon - ullon) / params.get("w"));
+        int last = (1 << depth) - 1;
+        int x0 = clamp((int) Math.floor(pyramid.column(depth, ullon)), last);
+        int x1 = clamp((int) Math.ceil(pyramid.column(depth, lrlon)) - 1, last);
+        int y0 = clamp((int) Math.floor(pyramid.row(depth, ullat)), last);
+        int y1 = clamp((int) Math.ceil(pyramid.row(depth, lrlat)) - 1, last);
+        x1 = Math.max(x0, x1);
+        y1 = Math.max(y0, y1);
+        long tiles = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+        if (tiles > MAX_TILES) {
+            throw new IllegalArgumentException("The raster would have " + tiles
+                    + " tiles, more than the " + MAX_TILES + " allowed");
         }
-        return true;
-    }
-
-    public String[][] imageArray(ArrayList<QuadTreeNode> arr) {
-        int index = 1;
-        double firstLat = arr.get(0).ulLat;
-        while (arr.get(index).ulLat == firstLat) {
-            index += 1;
-        }
-
-
-
-        Iterator<QuadTreeNode> it = arr.iterator();
-        String[][] out = new String[arr.size() / index][index];
-//        for (int f = 0; f < out.length; f += 1) {
-//            for (int s = 0; s < out[0].length; s += 1) {
-//                String pngFile = "img/" + arr.get(counter).fileName + ".png";
-//                out[f][s] = pngFile;
-//                counter += 1;
-//            }
-//        }
-        int counter = 0;
-        while (it.hasNext()) {
-            QuadTreeNode q = it.next();
-            int row = counter / index;
-            int col = counter % index;
-            out[row][col] = "img/" + q.fileName + ".png";
-            counter += 1;
-        }
-        //sort through the array list and add to 2d array accordingly
-
-        return out;
-    }
-
-
-    //try 2d array list and add to that list, use .get.get to add to 2d array
-    public void getFiles(QuadTreeNode quad, double lrlon, double ullon,
-                         double ullat, double lrlat, double width,
-                         ArrayList<QuadTreeNode> ql) {
-        double queryLonDPP = getLonDPP(lrlon, ullon, width);
-        double nodeLonDPP = getLonDPP(quad.lrLon, quad.ulLon, MapServer.TILE_SIZE);
-
-        if (intersect(ullon, ullat, lrlon, lrlat, quad.ulLon,
-                quad.ulLat, quad.lrLon, quad.lrLat)) {
-            if (quad.depth == 7) {
-                ql.add(quad);
-            } else if (nodeLonDPP <= queryLonDPP) {
-                ql.add(quad);
-            } else {
-                getFiles(quad.NE, lrlon, ullon, ullat, lrlat, width, ql);
-                getFiles(quad.NW, lrlon, ullon, ullat, lrlat, width, ql);
-                getFiles(quad.SE, lrlon, ullon, ullat, lrlat, width, ql);
-                getFiles(quad.SW, lrlon, ullon, ullat, lrlat, width, ql);
+        String[][] grid = new String[y1 - y0 + 1][x1 - x0 + 1];
+        for (int y = y0; y <= y1; y += 1) {
+            for (int x = x0; x <= x1; x += 1) {
+                grid[y - y0][x - x0] = pyramid.path(depth, x, y);
             }
-
         }
-    }
 
-    public double getLonDPP(double lrLon, double ulLon, double width) {
-        double dPP = (lrLon - ulLon) / width;
-        return dPP;
-    }
+        results.put("depth", depth);
+        results.put("raster_ul_lon", pyramid.ullon() + x0 * pyramid.tileWidth(depth));
+        results.put("raster_lr_lon", pyramid.ullon() + (x1 + 1) * pyramid.tileWidth(depth));
+        results.put("query_success", true);
+        results.put("raster_lr_lat", pyramid.ullat() - (y1 + 1) * pyramid.tileHeight(depth));
+        results.put("raster_ul_lat", pyramid.ullat() - y0 * pyramid.tileHeight(depth));
+        results.put("render_grid", grid);
 
-    //Citation: Project 3 FAQ - stack overflow post
-    //query is rectangle A and picture is rectangle B
-    public boolean intersect(double queryULlon, double queryULlat,
-                             double queryLRlon, double queryLRlat,
-                             double rUllon, double rULlat, double rLRlon, double rLRlat) {
-        if (queryULlon < rLRlon && queryLRlon > rUllon
-                && queryULlat > rLRlat && queryLRlat < rULlat) {
-            return true;
-        }
-        return false;
+        return results;
     }
 
-
-
+    private static int clamp(int i, int last) {
+        return Math.max(0, Math.min(last, i));
+    }
 }
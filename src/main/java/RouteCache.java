@@ -0,0 +1,187 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of shortest paths, keyed by the (start, dest) vertex pair
+ * that the route endpoints were snapped to, or for routes between points on roads, by the road
+ * segments and the points on them. Paths are kept as compact <code>long[]</code> arrays of node
+ * ids rather than boxed lists. The cache remembers which <code>GraphDB</code> snapshot
+ * its entries belong to, and drops all of them as soon as it is used with a different one.
+ */
+public class RouteCache {
+    /** Rough per-entry bookkeeping cost: the map entry, the key and the array header. */
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, long[]> entries;
+    private long snapshot = -1;
+    private long hits;
+    private long misses;
+    private long pathBytes;
+
+    /**
+     * A route's ends: vertex ids with fractions of -1, or segments, as the compact indexes of
+     * their ends packed into a long, with the fraction of the way along each.
+     */
+    private static class Key {
+        private final long start;
+        private final double startFraction;
+        private final long dest;
+        private final double destFraction;
+
+        private Key(long start, double startFraction, long dest, double destFraction) {
+            this.start = start;
+            this.startFraction = startFraction;
+            this.dest = dest;
+            this.destFraction = destFraction;
+        }
+
+        private Key(long start, long dest) {
+            this(start, -1, dest, -1);
+        }
+
+        private Key(GraphDB.EdgePoint source, GraphDB.EdgePoint target) {
+            this(segment(source), source.fraction, segment(target), target.fraction);
+        }
+
+        private static long segment(GraphDB.EdgePoint p) {
+            return ((long) p.from << 32) | (p.to & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return start == k.start && dest == k.dest
+                    && Double.compare(startFraction, k.startFraction) == 0
+                    && Double.compare(destFraction, k.destFraction) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = Long.hashCode(start) * 31 + Long.hashCode(dest);
+            return (h * 31 + Double.hashCode(startFraction)) * 31 + Double.hashCode(destFraction);
+        }
+    }
+
+    /** Creates a cache that holds at most <code>capacity</code> routes. */
+    public RouteCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, long[]> eldest) {
+                if (size() > RouteCache.this.capacity) {
+                    pathBytes -= bytesOf(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached path from start to dest in g, or null if it has not been computed yet.
+     * The returned array is shared and must not be modified.
+     */
+    public long[] get(GraphDB g, long start, long dest) {
+        return get(g, new Key(start, dest));
+    }
+
+    /**
+     * Returns the cached path of vertices between the points source and target on roads of g,
+     * or null if it has not been computed yet. The path is empty if the route runs straight
+     * along one segment. The returned array is shared and must not be modified.
+     */
+    public long[] get(GraphDB g, GraphDB.EdgePoint source, GraphDB.EdgePoint target) {
+        return get(g, new Key(source, target));
+    }
+
+    private synchronized long[] get(GraphDB g, Key key) {
+        checkSnapshot(g);
+        long[] path = entries.get(key);
+        if (path == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return path;
+    }
+
+    /** Remembers path as the route from start to dest in g. */
+    public void put(GraphDB g, long start, long dest, long[] path) {
+        put(g, new Key(start, dest), path);
+    }
+
+    /** Remembers path as the vertices of the route between points source and target in g. */
+    public void put(GraphDB g, GraphDB.EdgePoint source, GraphDB.EdgePoint target,
+                    long[] path) {
+        put(g, new Key(source, target), path);
+    }
+
+    private synchronized void put(GraphDB g, Key key, long[] path) {
+        if (capacity <= 0) {
+            return;
+        }
+        checkSnapshot(g);
+        long[] old = entries.put(key, path);
+        if (old != null) {
+            pathBytes -= bytesOf(old);
+        }
+        pathBytes += bytesOf(path);
+    }
+
+    /** Drops every entry, e.g. because the graph they were computed on has been replaced. */
+    public synchronized void clear() {
+        entries.clear();
+        pathBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /** Fraction of lookups that were answered from the cache, or 0 if there were none. */
+    public synchronized double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /** Approximate number of bytes held by the cached paths and their bookkeeping. */
+    public synchronized long memoryBytes() {
+        return pathBytes;
+    }
+
+    /** Summary of the cache state for the stats endpoint. */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", entries.size());
+        stats.put("capacity", capacity);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hit_ratio", hitRatio());
+        stats.put("memory_bytes", pathBytes);
+        return stats;
+    }
+
+    private void checkSnapshot(GraphDB g) {
+        if (g.snapshot() != snapshot) {
+            clear();
+            snapshot = g.snapshot();
+        }
+    }
+
+    private static long bytesOf(long[] path) {
+        return ENTRY_OVERHEAD_BYTES + 8L * path.length;
+    }
+}
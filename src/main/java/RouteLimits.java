@@ -0,0 +1,33 @@
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounds on the work a single route search may do: how many vertices it may settle, how long it
+ * may run, and a cancellation check (for instance, whether the client is still connected).
+ * The search polls the deadline and the cancellation check every few hundred settled vertices.
+ */
+public class RouteLimits {
+    /** Limits used when the caller does not give any, configurable by system property. */
+    public static final RouteLimits DEFAULT = new RouteLimits(
+            Integer.getInteger("bearmaps.route.maxSettled", 2000000),
+            Long.getLong("bearmaps.route.timeoutMillis", 2000), () -> false);
+
+    final int maxSettled;
+    final long timeoutMillis;
+    final BooleanSupplier cancelled;
+
+    /**
+     * @param maxSettled Largest number of vertices the search may settle.
+     * @param timeoutMillis Wall-clock time the search may take, from when it starts.
+     * @param cancelled Returns true once the caller no longer wants the result.
+     */
+    public RouteLimits(int maxSettled, long timeoutMillis, BooleanSupplier cancelled) {
+        this.maxSettled = maxSettled;
+        this.timeoutMillis = timeoutMillis;
+        this.cancelled = cancelled;
+    }
+
+    /** Returns these limits with a different cancellation check. */
+    public RouteLimits cancelledWhen(BooleanSupplier c) {
+        return new RouteLimits(maxSettled, timeoutMillis, c);
+    }
+}
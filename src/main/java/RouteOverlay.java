@@ -0,0 +1,120 @@
+import java.awt.geom.Path2D;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A route as it is drawn over rastered images. Its points are looked up in the graph once, and
+ * for each depth it is drawn at, simplified once by Douglas-Peucker to what makes a difference
+ * of more than half a pixel at that depth, so that redrawing it for every /raster request only
+ * costs as much as the part of it in view, at the detail the view shows.
+ */
+class RouteOverlay {
+    /** How far simplification may move the route, in pixels. */
+    private static final double TOLERANCE_PX = 0.5;
+
+    /** The snapshot of the graph the points were looked up in. */
+    private final long snapshot;
+    /** The points along the route, from the point on the road where it starts, through its
+     * vertices, to the point where it ends. */
+    private final double[] lons;
+    private final double[] lats;
+    /** The positions of the points kept at each depth drawn so far. */
+    private final ConcurrentHashMap<Integer, int[]> simplified = new ConcurrentHashMap<>();
+
+    /**
+     * Looks up the points of route in graph. A route with vertices that are no longer in graph,
+     * left over from before a reload, has no points.
+     */
+    RouteOverlay(GraphDB graph, RouteResult route) {
+        long[] path = route.path;
+        int offset = route.source == null ? 0 : 1;
+        int n = path.length + offset + (route.target == null ? 0 : 1);
+        snapshot = graph == null ? -1 : graph.snapshot();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < path.length; i += 1) {
+            int v = graph.index(path[i]);
+            if (v < 0) {
+                x = new double[0];
+                y = new double[0];
+                break;
+            }
+            x[i + offset] = graph.lons[v];
+            y[i + offset] = graph.lats[v];
+        }
+        if (x.length == n && route.source != null) {
+            x[0] = route.source[0];
+            y[0] = route.source[1];
+        }
+        if (x.length == n && route.target != null) {
+            x[n - 1] = route.target[0];
+            y[n - 1] = route.target[1];
+        }
+        lons = x;
+        lats = y;
+    }
+
+    /** Returns true if this overlay's points were looked up in graph. */
+    boolean isOf(GraphDB graph) {
+        return graph != null && graph.snapshot() == snapshot;
+    }
+
+    /** Returns the number of points along the route. */
+    int size() {
+        return lons.length;
+    }
+
+    /**
+     * Returns the positions of the points that are kept when the route is drawn at depth,
+     * where a pixel spans lonDPP degrees of longitude and latDPP of latitude.
+     */
+    int[] simplified(int depth, double lonDPP, double latDPP) {
+        return simplified.computeIfAbsent(depth, d -> {
+            double[] x = new double[lons.length];
+            double[] y = new double[lons.length];
+            for (int i = 0; i < lons.length; i += 1) {
+                x[i] = lons[i] / lonDPP;
+                y[i] = lats[i] / latDPP;
+            }
+            return Polylines.simplify(x, y, 0, x.length, TOLERANCE_PX);
+        });
+    }
+
+    /**
+     * Returns the route as drawn on an image of width by height pixels of the given depth,
+     * whose upper left corner is at (ullon, ullat), or null if none of it is in view. The
+     * route is clipped to the image, widened by margin pixels on every side.
+     */
+    Path2D.Double path(int depth, double ullon, double ullat, double lonDPP, double latDPP,
+                       int width, int height, double margin) {
+        if (lons.length < 2) {
+            return null;
+        }
+        int[] kept = simplified(depth, lonDPP, latDPP);
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO, kept.length);
+        double[] s = new double[4];
+        boolean connected = false;
+        boolean any = false;
+        for (int k = 0; k + 1 < kept.length; k += 1) {
+            int a = kept[k];
+            int b = kept[k + 1];
+            s[0] = (lons[a] - ullon) / lonDPP;
+            s[1] = (ullat - lats[a]) / latDPP;
+            s[2] = (lons[b] - ullon) / lonDPP;
+            s[3] = (ullat - lats[b]) / latDPP;
+            double endX = s[2];
+            double endY = s[3];
+            if (!Polylines.clip(s, -margin, -margin, width + margin, height + margin)) {
+                connected = false;
+                continue;
+            }
+            if (!connected) {
+                path.moveTo(s[0], s[1]);
+            }
+            path.lineTo(s[2], s[3]);
+            any = true;
+            /* The next segment carries on from here only if this one was not cut short. */
+            connected = s[2] == endX && s[3] == endY;
+        }
+        return any ? path : null;
+    }
+}
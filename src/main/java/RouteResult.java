@@ -0,0 +1,106 @@
+import java.util.LinkedList;
+
+/**
+ * The outcome of a route search: whether a path was found, and if so the node ids along it,
+ * along with how much work the search did.
+ */
+public class RouteResult {
+    /** How a route search ended. */
+    public enum Status {
+        /** A path was found. */
+        FOUND,
+        /** The whole component of the start was searched without reaching the destination. */
+        UNREACHABLE,
+        /** The search settled too many vertices or ran past its deadline. */
+        BUDGET_EXCEEDED,
+        /** The caller cancelled the search. */
+        CANCELLED
+    }
+
+    private static final long[] NO_PATH = new long[0];
+    /** The result standing in for no route at all. */
+    static final RouteResult NONE = new RouteResult(Status.UNREACHABLE, null, 0);
+
+    final Status status;
+    /** Node ids from start to destination; empty unless the status is FOUND. */
+    final long[] path;
+    /** Number of vertices the search settled; 0 when answered from the route cache. */
+    final int settled;
+    /** Time spent snapping the endpoints to vertices, if the search did so. */
+    final long snapNanos;
+    /** Time spent in the search itself, or looking it up in the route cache. */
+    final long searchNanos;
+    /** The {lon, lat} points on the roads where the route starts and ends, before the first
+     * and after the last vertex of path, or null if it starts and ends at those vertices. */
+    final double[] source;
+    final double[] target;
+    /** The route as drawn over images, made on first use; see overlay. */
+    private volatile RouteOverlay overlay;
+
+    RouteResult(Status status, long[] path, int settled) {
+        this(status, path, settled, 0, 0, null, null);
+    }
+
+    private RouteResult(Status status, long[] path, int settled, long snapNanos,
+                        long searchNanos, double[] source, double[] target) {
+        this.status = status;
+        this.path = path == null ? NO_PATH : path;
+        this.settled = settled;
+        this.snapNanos = snapNanos;
+        this.searchNanos = searchNanos;
+        this.source = source;
+        this.target = target;
+    }
+
+    /** Returns this result annotated with how long snapping and searching took. */
+    RouteResult withTimings(long snap, long search) {
+        return new RouteResult(status, path, settled, snap, search, source, target);
+    }
+
+    /** Returns this result starting and ending at the given {lon, lat} points on roads. */
+    RouteResult withEndpoints(double[] start, double[] end) {
+        return new RouteResult(status, path, settled, snapNanos, searchNanos, start, end);
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public boolean found() {
+        return status == Status.FOUND;
+    }
+
+    public int settled() {
+        return settled;
+    }
+
+    public long snapNanos() {
+        return snapNanos;
+    }
+
+    public long searchNanos() {
+        return searchNanos;
+    }
+
+    /**
+     * Returns this route as drawn over images of graph, making it on first use, so that its
+     * points are looked up and simplified once however often it is drawn.
+     */
+    RouteOverlay overlay(GraphDB graph) {
+        RouteOverlay o = overlay;
+        if (o == null || !o.isOf(graph)) {
+            o = new RouteOverlay(graph, this);
+            overlay = o;
+        }
+        return o;
+    }
+
+    /** The path as a list of node ids, empty if none was found. */
+    public LinkedList<Long> toList() {
+        LinkedList<Long> l = new LinkedList<>();
+        for (long id : path) {
+            l.add(id);
+        }
+        return l;
+    }
+}
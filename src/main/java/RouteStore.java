@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the current route of each client session, so that concurrent users no longer overwrite
+ * or clear each other's routes. Routes are kept in a ConcurrentHashMap, so sessions never
+ * contend on a single lock. Sessions that have been idle longer than the idle timeout are
+ * evicted, and if there are still more than maxSessions left, the least recently used ones go
+ * too, down to nine tenths of maxSessions so that a full store is not re-sorted on every put.
+ */
+public class RouteStore {
+    private final ConcurrentHashMap<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final int maxSessions;
+    private final long idleMillis;
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    private static class Entry {
+        private final RouteResult route;
+        private volatile long lastAccess;
+
+        private Entry(RouteResult route, long lastAccess) {
+            this.route = route;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * @param maxSessions Most sessions to keep a route for.
+     * @param idleMillis How long a session may go unused before its route is dropped.
+     */
+    public RouteStore(int maxSessions, long idleMillis) {
+        this.maxSessions = maxSessions;
+        this.idleMillis = idleMillis;
+    }
+
+    /** Returns the route of session, or RouteResult.NONE if it has none. */
+    public RouteResult get(String session) {
+        Entry e = sessions.get(session);
+        if (e == null) {
+            return RouteResult.NONE;
+        }
+        e.lastAccess = System.currentTimeMillis();
+        return e.route;
+    }
+
+    /** Makes route the current route of session. */
+    public void put(String session, RouteResult route) {
+        long now = System.currentTimeMillis();
+        sessions.put(session, new Entry(route, now));
+        long sweep = nextSweep.get();
+        if (sessions.size() > maxSessions || (now >= sweep
+                && nextSweep.compareAndSet(sweep, now + idleMillis / 4))) {
+            evict(now);
+        }
+    }
+
+    /** Forgets the route of session. */
+    public void clear(String session) {
+        sessions.remove(session);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Drops the sessions that have been idle since before now - idleMillis, then, if there are
+     * too many left, the least recently used ones.
+     */
+    void evict(long now) {
+        sessions.values().removeIf(e -> now - e.lastAccess > idleMillis);
+        if (sessions.size() <= maxSessions) {
+            return;
+        }
+        int excess = sessions.size() - (maxSessions - maxSessions / 10);
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(sessions.entrySet());
+        entries.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+        for (int i = 0; i < excess && i < entries.size(); i += 1) {
+            sessions.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+    }
+}
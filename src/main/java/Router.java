@@ -1,7 +1,13 @@
-import java.util.PriorityQueue;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -33,91 +39,557 @@ public class Router {
 //        }
 
 
+    /** How many vertices a search settles between checks of its deadline and cancellation. */
+    private static final int LIMIT_CHECK_INTERVAL = 256;
+
+    /** Routes between popular endpoints are remembered here, keyed by the snapped vertices. */
+    private static final RouteCache CACHE =
+            new RouteCache(Integer.getInteger("bearmaps.routeCache.size", 4096));
+
+    /**
+     * Worker threads for batch routing. The queue is bounded; once it is full, the submitting
+     * request thread computes the route itself, which throttles oversized batches.
+     */
+    private static final ExecutorService BATCH_POOL = newBatchPool(
+            Integer.getInteger("bearmaps.batch.threads",
+                    Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("bearmaps.batch.queue", 1024));
+
+    private static ExecutorService newBatchPool(int threads, int queue) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, "route-batch");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     /**
      * Return a LinkedList of <code>Long</code>s representing the shortest path from st to dest,
-     * where the longs are node IDs.
+     * where the longs are node IDs. The list is empty if no route was found within the default
+     * RouteLimits.
      */
     public static LinkedList<Long> shortestPath(GraphDB g, double stlon,
                                                 double stlat, double destlon, double destlat) {
+        return route(g, stlon, stlat, destlon, destlat, RouteLimits.DEFAULT).toList();
+    }
 
-        LinkedList<Long> ans = new LinkedList<>();
-        HashMap<Long, Double> distTo = new HashMap<>(); //distance it takes in the p
-        Long start = g.closest(stlon, stlat);
-        Long dest = g.closest(destlon, destlat);
-        PriorityQueue<GraphDB.Node> pq = new PriorityQueue<>();
-        GraphDB.Node init = g.nodesMap.get(start);
-        GraphDB.Node end = g.nodesMap.get(dest);
-        HashSet<Long> seen = new HashSet<>();
-        HashMap<Long, Long> realEdgeTo = new HashMap<>();
-
-        init.setPriority(end, 0); //priority represents euclidean distance to dest
-        pq.add(init); //added the start node to the priority queue
-        distTo.put(start, 0.0); //dist to represents how long it has taken
-        //ans.add(start);
-        LinkedList<Long> firstLL = new LinkedList<>();
-        firstLL.add(start);
-        //edgeTo.put(start, firstLL);
-        realEdgeTo.put(start, start);
-
-        while (!pq.isEmpty()) {
-
-
-            GraphDB.Node min = pq.remove();
-            long minID = min.id;
-            //System.out.println(ans);
-            seen.add(start);
-
-            if (minID == dest) {
-                LinkedList<Long> l = new LinkedList<>();
-                Long pointer = minID;
-                l.add(0, minID);
-                while (!realEdgeTo.get(pointer).equals(start)) {
-                    l.add(0, realEdgeTo.get(pointer));
-                    pointer = realEdgeTo.get(pointer);
+    /**
+     * Return the shortest path between two vertices of g, or an empty list if no route was
+     * found within the default RouteLimits.
+     */
+    public static LinkedList<Long> shortestPath(GraphDB g, long start, long dest) {
+        return route(g, start, dest, RouteLimits.DEFAULT).toList();
+    }
+
+    /**
+     * Finds the shortest path between the vertices closest to st and dest, doing no more work
+     * than limits allows. The result records how long snapping and searching took, and a
+     * bearmaps.Route flight recorder event is emitted for the query.
+     */
+    public static RouteResult route(GraphDB g, double stlon, double stlat,
+                                    double destlon, double destlat, RouteLimits limits) {
+        FlightEvents.Route event = new FlightEvents.Route();
+        event.begin();
+        long t0 = System.nanoTime();
+        long start = g.closest(stlon, stlat);
+        long dest = g.closest(destlon, destlat);
+        long t1 = System.nanoTime();
+        RouteResult result = route(g, start, dest, limits);
+        result = result.withTimings(t1 - t0, System.nanoTime() - t1);
+        commit(event, stlon, stlat, destlon, destlat, result);
+        return result;
+    }
+
+    /**
+     * Finds the shortest path between the points on the roads closest to st and dest, rather
+     * than between the closest vertices, so a route starts on the road that was clicked even if
+     * the nearest intersection is on another. The path holds the vertices in between, and the
+     * result also records the two points on the roads. Routes are cached by the segments and
+     * the points on them, so asking again for a route between the same points is answered from
+     * the route cache.
+     */
+    public static RouteResult routeOnEdges(GraphDB g, double stlon, double stlat,
+                                           double destlon, double destlat, RouteLimits limits) {
+        return routeOnEdges(g, stlon, stlat, destlon, destlat, limits, true);
+    }
 
+    /**
+     * Like routeOnEdges above, using the route cache only if cached is true, so that replaying
+     * queries to warm up neither fills the cache nor skips the searches it is meant to warm.
+     */
+    static RouteResult routeOnEdges(GraphDB g, double stlon, double stlat, double destlon,
+                                    double destlat, RouteLimits limits, boolean cached) {
+        FlightEvents.Route event = new FlightEvents.Route();
+        event.begin();
+        long t0 = System.nanoTime();
+        GraphDB.EdgePoint source = g.snapToEdge(stlon, stlat);
+        GraphDB.EdgePoint target = g.snapToEdge(destlon, destlat);
+        long t1 = System.nanoTime();
+        RouteResult result;
+        if (source == null || target == null) {
+            result = new RouteResult(RouteResult.Status.UNREACHABLE, null, 0);
+        } else {
+            long[] path = cached ? CACHE.get(g, source, target) : null;
+            if (path != null) {
+                result = new RouteResult(RouteResult.Status.FOUND, path, 0).withEndpoints(
+                        new double[] {source.lon, source.lat},
+                        new double[] {target.lon, target.lat});
+            } else {
+                result = aStar(g, source, target, limits);
+                if (cached && result.found()) {
+                    CACHE.put(g, source, target, result.path);
                 }
-                l.add(0, start);
-                return l;
-            }
-
-            for (Long adjid : min.adjacents.keySet()) {
-                if (!seen.contains(adjid)) {
-                    GraphDB.Node curr = g.nodesMap.get(adjid);
-                    if (distTo.get(adjid) == null) {
-                        distTo.put(adjid, distTo.get(minID) + g.distance(minID, adjid));
-                        curr.parent = min;
-
-                        seen.add(adjid);
-                        realEdgeTo.put(adjid, minID);
-                    } else if (distTo.get(adjid) != null && distTo.get(adjid)
-                            > distTo.get(minID) + g.distance(minID, adjid)) {
-                        distTo.put(adjid, distTo.get(minID) + g.distance(minID, adjid));
-                        //ans.add(adjid);
-                        curr.parent = min;
-
-                        realEdgeTo.put(adjid, minID);
-                    }
-
-                    curr.setPriority(end, distTo.get(adjid));
-                    pq.add(curr);
-
-
-                } else if (seen.contains(adjid) && distTo.get(adjid) != null
-                        && distTo.get(adjid) > distTo.get(minID) + g.distance(minID, adjid)) {
-                    GraphDB.Node curr = g.nodesMap.get(adjid);
-                    distTo.put(adjid, distTo.get(minID) + g.distance(minID, adjid));
-                    curr.parent = min;
-                    curr.setPriority(end, distTo.get(adjid));
-                    pq.add(curr);
-                    realEdgeTo.put(adjid, minID);
+            }
+        }
+        result = result.withTimings(t1 - t0, System.nanoTime() - t1);
+        commit(event, stlon, stlat, destlon, destlat, result);
+        return result;
+    }
+
+    /** Fills in event with the query and its result, if the event is being recorded. */
+    private static void commit(FlightEvents.Route event, double stlon, double stlat,
+                               double destlon, double destlat, RouteResult result) {
+        if (event.shouldCommit()) {
+            event.startLon = stlon;
+            event.startLat = stlat;
+            event.endLon = destlon;
+            event.endLat = destlat;
+            event.status = result.status.name();
+            event.pathLength = result.path.length;
+            event.settled = result.settled;
+            event.snapNanos = result.snapNanos;
+            event.searchNanos = result.searchNanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Finds the shortest path between two points on roads, seeding the search with both ends
+     * of the source's road segment and finishing at either end of the target's. When both lie
+     * on the same segment, going straight along it is considered as well.
+     */
+    private static RouteResult aStar(GraphDB g, GraphDB.EdgePoint source,
+                                     GraphDB.EdgePoint target, RouteLimits limits) {
+        double sourceLength = g.distanceCalc(g.lons[source.from], g.lons[source.to],
+                g.lats[source.from], g.lats[source.to]);
+        double targetLength = g.distanceCalc(g.lons[target.from], g.lons[target.to],
+                g.lats[target.from], g.lats[target.to]);
+        RouteResult result = aStar(g, new int[] {source.from, source.to},
+                new double[] {source.fraction * sourceLength,
+                    (1 - source.fraction) * sourceLength},
+                new int[] {target.from, target.to},
+                new double[] {target.fraction * targetLength,
+                    (1 - target.fraction) * targetLength},
+                target.lon, target.lat, limits);
+        if (source.from == target.from && source.to == target.to) {
+            double direct = Math.abs(source.fraction - target.fraction) * sourceLength;
+            if (!result.found() || direct <= length(g, result.path, source, target)) {
+                result = new RouteResult(RouteResult.Status.FOUND, null, result.settled);
+            }
+        }
+        if (!result.found()) {
+            return result;
+        }
+        return result.withEndpoints(new double[] {source.lon, source.lat},
+                new double[] {target.lon, target.lat});
+    }
+
+    /** Returns the length of a path from source through the given vertices to target. */
+    private static double length(GraphDB g, long[] path, GraphDB.EdgePoint source,
+                                 GraphDB.EdgePoint target) {
+        double length = 0;
+        double lon = source.lon;
+        double lat = source.lat;
+        for (long id : path) {
+            int v = g.index(id);
+            length += g.distanceCalc(lon, g.lons[v], lat, g.lats[v]);
+            lon = g.lons[v];
+            lat = g.lats[v];
+        }
+        return length + g.distanceCalc(lon, target.lon, lat, target.lat);
+    }
+
+    /**
+     * Finds the shortest path between two vertices of g, answering from the route cache when
+     * the same pair has been asked for before, and doing no more work than limits allows.
+     */
+    public static RouteResult route(GraphDB g, long start, long dest, RouteLimits limits) {
+        long[] cached = CACHE.get(g, start, dest);
+        if (cached != null) {
+            return new RouteResult(RouteResult.Status.FOUND, cached, 0);
+        }
+        RouteResult result = aStar(g, start, dest, limits);
+        if (result.found()) {
+            CACHE.put(g, start, dest, result.path);
+        }
+        return result;
+    }
+
+    /**
+     * Computes many routes at once on the batch routing pool, each doing no more work than
+     * limits allows, so that all of them stop once limits says the caller has gone.
+     * @param queries One {stlon, stlat, destlon, destlat} row per route.
+     * @return The result of each query, in order.
+     */
+    public static List<RouteResult> shortestPaths(GraphDB g, double[][] queries,
+                                                  RouteLimits limits)
+            throws InterruptedException {
+        List<Future<RouteResult>> futures = new ArrayList<>(queries.length);
+        for (double[] q : queries) {
+            futures.add(BATCH_POOL.submit(() -> route(g, q[0], q[1], q[2], q[3], limits)));
+        }
+        List<RouteResult> results = new ArrayList<>(queries.length);
+        for (Future<RouteResult> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /** The cache of previously computed routes, for reporting its hit ratio and size. */
+    public static RouteCache cache() {
+        return CACHE;
+    }
+
+    /** The distances found by distanceMatrix, and how the search from each source ended. */
+    public static class Matrix {
+        /** Entry [i * targets + j] is the distance from source i to target j, or infinity if
+         * the target was not reached. */
+        final double[] distances;
+        /** FOUND if every target was reached from source i, UNREACHABLE if some cannot be,
+         * and BUDGET_EXCEEDED or CANCELLED if the search stopped early. */
+        final RouteResult.Status[] status;
+
+        Matrix(double[] distances, RouteResult.Status[] status) {
+            this.distances = distances;
+            this.status = status;
+        }
+    }
+
+    /**
+     * Computes the shortest-path distance from every source to every target. Each point is
+     * snapped to its closest vertex once, and then one Dijkstra search per source runs until all
+     * targets are settled, with the sources searched in parallel on the batch routing pool. Each
+     * search may settle as many vertices as limits allows, and all of them stop at the deadline
+     * of limits, counted from when the matrix is started, or once limits says the caller has
+     * gone. On a graph with no vertices, nothing is reached and every source is UNREACHABLE.
+     * @param srcLon Longitudes of the sources.
+     * @param srcLat Latitudes of the sources.
+     * @param tgtLon Longitudes of the targets.
+     * @param tgtLat Latitudes of the targets.
+     */
+    public static Matrix distanceMatrix(GraphDB g, double[] srcLon, double[] srcLat,
+                                        double[] tgtLon, double[] tgtLat, RouteLimits limits)
+            throws InterruptedException {
+        long deadline = deadline(limits);
+        double[] matrix = new double[srcLon.length * tgtLon.length];
+        RouteResult.Status[] status = new RouteResult.Status[srcLon.length];
+        if (g.size() == 0) {
+            Arrays.fill(matrix, Double.POSITIVE_INFINITY);
+            Arrays.fill(status, RouteResult.Status.UNREACHABLE);
+            return new Matrix(matrix, status);
+        }
+        int[] sources = snap(g, srcLon, srcLat);
+        int[] targets = snap(g, tgtLon, tgtLat);
+        boolean[] isTarget = new boolean[g.size()];
+        int distinct = 0;
+        for (int t : targets) {
+            if (!isTarget[t]) {
+                isTarget[t] = true;
+                distinct += 1;
+            }
+        }
+        int targetCount = distinct;
+        List<Future<RouteResult.Status>> futures = new ArrayList<>(sources.length);
+        for (int i = 0; i < sources.length; i += 1) {
+            int row = i;
+            futures.add(BATCH_POOL.submit(() -> oneToMany(g, sources[row], targets, isTarget,
+                    targetCount, matrix, row * targets.length, limits, deadline)));
+        }
+        for (int i = 0; i < sources.length; i += 1) {
+            try {
+                status[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return new Matrix(matrix, status);
+    }
+
+    /** Snaps each (lon, lat) pair to the compact index of its closest vertex. */
+    private static int[] snap(GraphDB g, double[] lons, double[] lats) {
+        int[] snapped = new int[lons.length];
+        for (int i = 0; i < lons.length; i += 1) {
+            snapped[i] = g.closestIndex(lons[i], lats[i]);
+        }
+        return snapped;
+    }
+
+    /**
+     * Dijkstra's from source, stopping once all of the distinct target vertices (the ones
+     * marked in isTarget) have been settled, or limits says to. Writes the distance to
+     * targets[j] into out[offset + j], infinity if it was not settled.
+     * @return How the search ended.
+     */
+    private static RouteResult.Status oneToMany(GraphDB g, int source, int[] targets,
+                                                boolean[] isTarget, int remaining, double[] out,
+                                                int offset, RouteLimits limits, long deadline) {
+        SearchState s = SearchState.forGraph(g);
+        s.reach(source, 0, -1, 0);
+        int settled = 0;
+        RouteResult.Status status = RouteResult.Status.FOUND;
+        while (remaining > 0) {
+            if (s.isEmpty()) {
+                status = RouteResult.Status.UNREACHABLE;
+                break;
+            }
+            int v = s.pop();
+            if (s.isSettled(v)) {
+                continue;
+            }
+            s.settle(v);
+            settled += 1;
+            if (isTarget[v]) {
+                remaining -= 1;
+            }
+            RouteResult.Status stop = checkLimits(limits, settled, deadline);
+            if (stop != null && remaining > 0) {
+                status = stop;
+                break;
+            }
+            double dv = s.dist(v);
+            for (int e = g.adjStart[v]; e < g.adjStart[v + 1]; e += 1) {
+                int w = g.adjTo[e];
+                double d = dv + g.adjWeight[e];
+                if (d < s.dist(w)) {
+                    s.reach(w, d, v, d);
                 }
+            }
+        }
+        for (int j = 0; j < targets.length; j += 1) {
+            out[offset + j] = s.isSettled(targets[j]) ? s.dist(targets[j])
+                    : Double.POSITIVE_INFINITY;
+        }
+        return status;
+    }
+
+    /** The vertices found by a reachability search, and their distances from its start. */
+    public static class Reachable {
+        final long[] ids;
+        final double[] distances;
+        /** FOUND if every vertex within the budget was found; BUDGET_EXCEEDED or CANCELLED if
+         * the search stopped early, with the closest vertices found so far. */
+        final RouteResult.Status status;
 
+        Reachable(long[] ids, double[] distances, RouteResult.Status status) {
+            this.ids = ids;
+            this.distances = distances;
+            this.status = status;
+        }
+    }
+
+    /**
+     * Finds every vertex whose shortest-path distance from the vertex closest to (lon, lat) is at
+     * most budget, settling no more vertices than limits allows. This is Dijkstra's that never
+     * queues a vertex beyond the budget, so it stops as soon as the frontier has moved past it.
+     */
+    public static Reachable reachable(GraphDB g, double lon, double lat, double budget,
+                                      RouteLimits limits) {
+        long deadline = deadline(limits);
+        if (g.size() == 0) {
+            return new Reachable(new long[0], new double[0], RouteResult.Status.FOUND);
+        }
+        SearchState s = SearchState.forGraph(g);
+        int start = g.closestIndex(lon, lat);
+        s.reach(start, 0, -1, 0);
+        int count = 0;
+        long[] ids = new long[64];
+        double[] distances = new double[64];
+        RouteResult.Status status = RouteResult.Status.FOUND;
+        while (!s.isEmpty()) {
+            int v = s.pop();
+            if (s.isSettled(v)) {
+                continue;
+            }
+            s.settle(v);
+            double dv = s.dist(v);
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                distances = Arrays.copyOf(distances, count * 2);
             }
+            ids[count] = g.ids[v];
+            distances[count] = dv;
+            count += 1;
+            RouteResult.Status stop = checkLimits(limits, count, deadline);
+            if (stop != null) {
+                status = stop;
+                break;
+            }
+            for (int e = g.adjStart[v]; e < g.adjStart[v + 1]; e += 1) {
+                int w = g.adjTo[e];
+                double d = dv + g.adjWeight[e];
+                if (d <= budget && d < s.dist(w)) {
+                    s.reach(w, d, v, d);
+                }
+            }
+        }
+        return new Reachable(Arrays.copyOf(ids, count), Arrays.copyOf(distances, count),
+                status);
+    }
 
+    /**
+     * Returns the convex hull of the given vertices as a counter-clockwise list of
+     * {lon, lat} points, using Andrew's monotone chain.
+     */
+    public static double[][] convexHull(GraphDB g, long[] ids) {
+        int n = ids.length;
+        double[][] pts = new double[n][];
+        for (int i = 0; i < n; i += 1) {
+            pts[i] = new double[] {g.lon(ids[i]), g.lat(ids[i])};
+        }
+        if (n < 3) {
+            return pts;
+        }
+        Arrays.sort(pts, (a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0])
+                : Double.compare(a[1], b[1]));
+        double[][] hull = new double[2 * n][];
+        int k = 0;
+        for (int i = 0; i < n; i += 1) {
+            while (k >= 2 && cross(hull[k - 2], hull[k - 1], pts[i]) <= 0) {
+                k -= 1;
+            }
+            hull[k] = pts[i];
+            k += 1;
         }
+        for (int i = n - 2, lower = k + 1; i >= 0; i -= 1) {
+            while (k >= lower && cross(hull[k - 2], hull[k - 1], pts[i]) <= 0) {
+                k -= 1;
+            }
+            hull[k] = pts[i];
+            k += 1;
+        }
+        return Arrays.copyOf(hull, k - 1);
+    }
 
-        return null;
+    private static double cross(double[] o, double[] a, double[] b) {
+        return (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
     }
 
-}
+    /**
+     * A* from start to dest over the compact graph, using the straight-line distance to dest as
+     * the heuristic.
+     */
+    private static RouteResult aStar(GraphDB g, long start, long dest, RouteLimits limits) {
+        int from = g.index(start);
+        int to = g.index(dest);
+        if (from < 0 || to < 0) {
+            return new RouteResult(RouteResult.Status.UNREACHABLE, null, 0);
+        }
+        return aStar(g, new int[] {from}, new double[] {0}, new int[] {to}, new double[] {0},
+                g.lons[to], g.lats[to], limits);
+    }
 
+    /**
+     * A* over the compact graph from several sources to several targets: the search starts
+     * with each sources[i] already reached at distance sourceDistance[i], and reaching
+     * targets[j] costs targetDistance[j] more to get to the goal at (goalLon, goalLat), whose
+     * straight-line distance is the heuristic. This is how a route starts and ends partway
+     * along a road without adding vertices to the shared graph. The search stops once no
+     * queued vertex can lead to a shorter route than the best one found.
+     *
+     * All search state lives in this thread's SearchState, so any number of searches may run
+     * at once. The deadline and cancellation check in limits are polled every
+     * LIMIT_CHECK_INTERVAL settled vertices.
+     */
+    private static RouteResult aStar(GraphDB g, int[] sources, double[] sourceDistance,
+                                     int[] targets, double[] targetDistance, double goalLon,
+                                     double goalLat, RouteLimits limits) {
+        long deadline = deadline(limits);
+        SearchState s = SearchState.forGraph(g);
+        for (int i = 0; i < sources.length; i += 1) {
+            int v = sources[i];
+            if (sourceDistance[i] < s.dist(v)) {
+                s.reach(v, sourceDistance[i], -1, sourceDistance[i]
+                        + g.distanceCalc(g.lons[v], goalLon, g.lats[v], goalLat));
+            }
+        }
+        int settled = 0;
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        while (!s.isEmpty() && s.peekKey() < bestDistance) {
+            int v = s.pop();
+            if (s.isSettled(v)) {
+                continue;
+            }
+            s.settle(v);
+            settled += 1;
+            double dv = s.dist(v);
+            for (int j = 0; j < targets.length; j += 1) {
+                if (targets[j] == v && dv + targetDistance[j] < bestDistance) {
+                    best = v;
+                    bestDistance = dv + targetDistance[j];
+                }
+            }
+            if (best >= 0 && (s.isEmpty() || s.peekKey() >= bestDistance)) {
+                break;
+            }
+            RouteResult.Status stop = checkLimits(limits, settled, deadline);
+            if (stop != null) {
+                return new RouteResult(stop, null, settled);
+            }
+            for (int e = g.adjStart[v]; e < g.adjStart[v + 1]; e += 1) {
+                int w = g.adjTo[e];
+                double d = dv + g.adjWeight[e];
+                if (d < s.dist(w)) {
+                    s.reach(w, d, v, d + g.distanceCalc(g.lons[w], goalLon, g.lats[w], goalLat));
+                }
+            }
+        }
+        if (best < 0) {
+            return new RouteResult(RouteResult.Status.UNREACHABLE, null, settled);
+        }
+        int length = 0;
+        for (int p = best; p != -1; p = s.parent(p)) {
+            length += 1;
+        }
+        long[] path = new long[length];
+        for (int p = best; p != -1; p = s.parent(p)) {
+            length -= 1;
+            path[length] = g.ids[p];
+        }
+        return new RouteResult(RouteResult.Status.FOUND, path, settled);
+    }
+
+    /** Returns when a search started now must stop by limits, in System.nanoTime terms. */
+    private static long deadline(RouteLimits limits) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limits.timeoutMillis);
+    }
+
+    /**
+     * Returns why a search that has settled the given number of vertices must stop, or null if
+     * it may go on. The deadline and cancellation check are polled on the first vertex, so that
+     * a search that is no longer wanted does nothing, and then every LIMIT_CHECK_INTERVAL
+     * vertices.
+     */
+    private static RouteResult.Status checkLimits(RouteLimits limits, int settled,
+                                                  long deadline) {
+        if (settled >= limits.maxSettled) {
+            return RouteResult.Status.BUDGET_EXCEEDED;
+        }
+        if (settled % LIMIT_CHECK_INTERVAL == 1) {
+            if (limits.cancelled.getAsBoolean()) {
+                return RouteResult.Status.CANCELLED;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                return RouteResult.Status.BUDGET_EXCEEDED;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ * Per-query scratch space for the graph searches in Router: tentative distances, parents,
+ * settled marks and a binary heap, all held in primitive arrays indexed by compact vertex
+ * number (see GraphDB.index). Each thread keeps one SearchState and reuses it for every query.
+ * A generation stamp tells which entries belong to the current query, so nothing has to be
+ * cleared between searches and concurrent queries never share state.
+ */
+class SearchState {
+    private static final ThreadLocal<SearchState> LOCAL = new ThreadLocal<>();
+
+    private int generation;
+    private int[] stamp = new int[0];
+    private boolean[] settled = new boolean[0];
+    private double[] dist = new double[0];
+    private int[] parent = new int[0];
+
+    /* Binary min-heap of (key, vertex) pairs. Vertices may appear more than once; stale copies
+     * are skipped when popped because the vertex has already been settled. */
+    private double[] heapKey = new double[64];
+    private int[] heapVertex = new int[64];
+    private int heapSize;
+
+    /** Returns this thread's SearchState, emptied and large enough for every vertex of g. */
+    static SearchState forGraph(GraphDB g) {
+        SearchState s = LOCAL.get();
+        if (s == null) {
+            s = new SearchState();
+            LOCAL.set(s);
+        }
+        s.reset(g.size());
+        return s;
+    }
+
+    private void reset(int n) {
+        if (stamp.length < n) {
+            stamp = new int[n];
+            settled = new boolean[n];
+            dist = new double[n];
+            parent = new int[n];
+            generation = 0;
+        }
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        heapSize = 0;
+    }
+
+    /** Tentative distance to v, or infinity if v has not been reached in this query. */
+    double dist(int v) {
+        return stamp[v] == generation ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** The vertex v was reached from, or -1 if it is a search root or unreached. */
+    int parent(int v) {
+        return stamp[v] == generation ? parent[v] : -1;
+    }
+
+    boolean isSettled(int v) {
+        return stamp[v] == generation && settled[v];
+    }
+
+    void settle(int v) {
+        settled[v] = true;
+    }
+
+    /** Records that v can be reached at distance d via p, and queues it with the given key. */
+    void reach(int v, double d, int p, double key) {
+        if (stamp[v] != generation) {
+            stamp[v] = generation;
+            settled[v] = false;
+        }
+        dist[v] = d;
+        parent[v] = p;
+        push(v, key);
+    }
+
+    boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /** Key of the vertex at the top of the heap. */
+    double peekKey() {
+        return heapKey[0];
+    }
+
+    private void push(int v, double key) {
+        if (heapSize == heapKey.length) {
+            heapKey = Arrays.copyOf(heapKey, heapSize * 2);
+            heapVertex = Arrays.copyOf(heapVertex, heapSize * 2);
+        }
+        int i = heapSize;
+        heapSize += 1;
+        while (i > 0) {
+            int up = (i - 1) / 2;
+            if (heapKey[up] <= key) {
+                break;
+            }
+            heapKey[i] = heapKey[up];
+            heapVertex[i] = heapVertex[up];
+            i = up;
+        }
+        heapKey[i] = key;
+        heapVertex[i] = v;
+    }
+
+    /** Removes and returns the vertex with the smallest key. */
+    int pop() {
+        int top = heapVertex[0];
+        heapSize -= 1;
+        double key = heapKey[heapSize];
+        int v = heapVertex[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapKey[child + 1] < heapKey[child]) {
+                child += 1;
+            }
+            if (key <= heapKey[child]) {
+                break;
+            }
+            heapKey[i] = heapKey[child];
+            heapVertex[i] = heapVertex[child];
+            i = child;
+        }
+        heapKey[i] = key;
+        heapVertex[i] = v;
+        return top;
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.Arrays;
+
+/**
+ * Immutable spatial index over line segments, a packed R-tree built by Sort-Tile-Recursive on
+ * the segments' midpoints (see PackedTree), with each node's box covering the whole of its
+ * segments. Segments are referred to by their position in the arrays the index was built from.
+ * Distances are Euclidean in degrees, like GraphDB.distance.
+ */
+public class SegmentIndex {
+    private static final int NODE_SIZE = PackedTree.NODE_SIZE;
+
+    private final PackedTree tree;
+    /** The segments' end points and original positions, in tree order. */
+    private final double[] x0;
+    private final double[] y0;
+    private final double[] x1;
+    private final double[] y1;
+    private final int[] items;
+
+    /** The segment from (fromX[i], fromY[i]) to (toX[i], toY[i]) is segment i. */
+    public SegmentIndex(double[] fromX, double[] fromY, double[] toX, double[] toY) {
+        int n = fromX.length;
+        /* Sorting by the sums of the ends sorts by the midpoints. */
+        double[] sumX = new double[n];
+        double[] sumY = new double[n];
+        double[] minX = new double[n];
+        double[] minY = new double[n];
+        double[] maxX = new double[n];
+        double[] maxY = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            sumX[i] = fromX[i] + toX[i];
+            sumY[i] = fromY[i] + toY[i];
+            minX[i] = Math.min(fromX[i], toX[i]);
+            minY[i] = Math.min(fromY[i], toY[i]);
+            maxX[i] = Math.max(fromX[i], toX[i]);
+            maxY[i] = Math.max(fromY[i], toY[i]);
+        }
+        tree = new PackedTree(sumX, sumY, minX, minY, maxX, maxY);
+        items = tree.items;
+        x0 = new double[n];
+        y0 = new double[n];
+        x1 = new double[n];
+        y1 = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            int s = items[i];
+            x0[i] = fromX[s];
+            y0[i] = fromY[s];
+            x1[i] = toX[s];
+            y1[i] = toY[s];
+        }
+    }
+
+    /** Returns the number of segments indexed. */
+    public int size() {
+        return items.length;
+    }
+
+    /**
+     * Returns the position of the segment closest to (x, y), or -1 if there are none. Subtrees
+     * are visited closest box first and skipped once their box is farther than the closest
+     * segment found so far, so only the part of the tree near the point is looked at.
+     */
+    public int nearest(double x, double y) {
+        if (items.length == 0) {
+            return -1;
+        }
+        int[] stack = new int[64];
+        int[] stackLevel = new int[64];
+        double[] stackDistance = new double[64];
+        stack[0] = 0;
+        stackLevel[0] = tree.rootLevel();
+        int top = 1;
+        double best = Double.POSITIVE_INFINITY;
+        int bestItem = -1;
+        while (top > 0) {
+            top -= 1;
+            int i = stack[top];
+            int l = stackLevel[top];
+            if (stackDistance[top] >= best) {
+                continue;
+            }
+            int first = i * NODE_SIZE;
+            int end = Math.min(tree.childCount(l), first + NODE_SIZE);
+            if (l == 0) {
+                for (int c = first; c < end; c += 1) {
+                    double d = distance(c, x, y);
+                    if (d < best) {
+                        best = d;
+                        bestItem = c;
+                    }
+                }
+                continue;
+            }
+            /* Push the children farthest first, so the closest is popped next. */
+            int pushed = top;
+            for (int c = first; c < end; c += 1) {
+                double d = tree.boxDistance(tree.levelStart[l - 1] + c, x, y);
+                if (d >= best) {
+                    continue;
+                }
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                    stackLevel = Arrays.copyOf(stackLevel, top * 2);
+                    stackDistance = Arrays.copyOf(stackDistance, top * 2);
+                }
+                int j = top;
+                while (j > pushed && stackDistance[j - 1] < d) {
+                    stack[j] = stack[j - 1];
+                    stackLevel[j] = stackLevel[j - 1];
+                    stackDistance[j] = stackDistance[j - 1];
+                    j -= 1;
+                }
+                stack[j] = c;
+                stackLevel[j] = l - 1;
+                stackDistance[j] = d;
+                top += 1;
+            }
+        }
+        return items[bestItem];
+    }
+
+    /**
+     * Returns the positions of the segments whose bounding boxes overlap the box, in no
+     * particular order; these include every segment that crosses the box.
+     */
+    public int[] within(double west, double south, double east, double north) {
+        int[] found = new int[64];
+        int count = 0;
+        if (items.length == 0) {
+            return new int[0];
+        }
+        int[] stack = new int[64];
+        int[] stackLevel = new int[64];
+        stack[0] = 0;
+        stackLevel[0] = tree.rootLevel();
+        int top = 1;
+        while (top > 0) {
+            top -= 1;
+            int i = stack[top];
+            int l = stackLevel[top];
+            if (!tree.overlaps(tree.levelStart[l] + i, west, south, east, north)) {
+                continue;
+            }
+            int end = Math.min(tree.childCount(l), (i + 1) * NODE_SIZE);
+            for (int c = i * NODE_SIZE; c < end; c += 1) {
+                if (l > 0) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        stackLevel = Arrays.copyOf(stackLevel, top * 2);
+                    }
+                    stack[top] = c;
+                    stackLevel[top] = l - 1;
+                    top += 1;
+                } else if (Math.min(x0[c], x1[c]) <= east && Math.max(x0[c], x1[c]) >= west
+                        && Math.min(y0[c], y1[c]) <= north && Math.max(y0[c], y1[c]) >= south) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count] = items[c];
+                    count += 1;
+                }
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Returns where the point closest to (x, y) lies on the segment from (ax, ay) to (bx, by),
+     * as a fraction of the way from a to b.
+     */
+    static double projection(double ax, double ay, double bx, double by, double x, double y) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length2 = dx * dx + dy * dy;
+        if (length2 == 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / length2));
+    }
+
+    /** Returns the distance from (x, y) to segment c in tree order. */
+    private double distance(int c, double x, double y) {
+        double t = projection(x0[c], y0[c], x1[c], y1[c], x, y);
+        return Math.hypot(x0[c] + t * (x1[c] - x0[c]) - x, y0[c] + t * (y1[c] - y0[c]) - y);
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * A log of requests that took longer than a configurable threshold, one JSON object per line,
+ * holding the endpoint, its query parameters, the latency and whatever details the handler
+ * attached (tile count, path length, stage timings, ...). Only a configurable fraction of slow
+ * requests is written, and no more than a configurable number in any one second, so a burst of
+ * them cannot flood the disk. Logged /raster and /route
+ * queries can be replayed offline against a fresh Rasterer and GraphDB with the main method.
+ */
+public class SlowQueryLog {
+    /** One logged request. */
+    static class Entry {
+        long time;
+        String endpoint;
+        Map<String, String> params;
+        double millis;
+        Map<String, Object> detail;
+    }
+
+    private final String path;
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final int maxPerSecond;
+    private Writer out;
+    /** The second, in milliseconds since the epoch, that written counts the entries of. */
+    private long second;
+    private int written;
+
+    /**
+     * @param path File the log is appended to.
+     * @param thresholdMillis Requests faster than this are not logged.
+     * @param sampleRate Fraction, between 0 and 1, of slow requests that are logged.
+     * @param maxPerSecond Most entries written in any one second; the rest are dropped.
+     */
+    public SlowQueryLog(String path, long thresholdMillis, double sampleRate,
+                        int maxPerSecond) {
+        this.path = path;
+        this.thresholdNanos = thresholdMillis * 1000000;
+        this.sampleRate = sampleRate;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /** The log configured by the bearmaps.slowlog.* system properties. */
+    static SlowQueryLog fromSystemProperties() {
+        return new SlowQueryLog(System.getProperty("bearmaps.slowlog.path", "slow_queries.log"),
+                Long.getLong("bearmaps.slowlog.thresholdMillis", 500),
+                Double.parseDouble(System.getProperty("bearmaps.slowlog.sampleRate", "1.0")),
+                Integer.getInteger("bearmaps.slowlog.maxPerSecond", 10));
+    }
+
+    /** Returns true if a request that took latencyNanos is slow enough to be logged. */
+    public boolean isSlow(long latencyNanos) {
+        return latencyNanos >= thresholdNanos;
+    }
+
+    /**
+     * Logs a request to endpoint if it took at least the threshold and is picked by sampling.
+     * @param detail Extra information about the request, or null.
+     */
+    public void log(String endpoint, Map<String, String> params, long latencyNanos,
+                    Map<String, Object> detail) {
+        if (!isSlow(latencyNanos) || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        Entry e = new Entry();
+        e.time = System.currentTimeMillis();
+        e.endpoint = endpoint;
+        e.params = params;
+        e.millis = latencyNanos / 1e6;
+        e.detail = detail;
+        Gson gson = new Gson();
+        write(e.time, gson.toJson(e));
+    }
+
+    /** Appends line, logged at time, unless maxPerSecond lines were already written in its
+     * second. */
+    private synchronized void write(long time, String line) {
+        if (time / 1000 != second) {
+            second = time / 1000;
+            written = 0;
+        }
+        if (written >= maxPerSecond) {
+            return;
+        }
+        written += 1;
+        try {
+            if (out == null) {
+                out = new FileWriter(path, true);
+            }
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Reads every entry of the log at path, skipping lines that cannot be parsed. */
+    static List<Entry> read(String path) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Gson gson = new Gson();
+        try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                try {
+                    Entry e = gson.fromJson(line, Entry.class);
+                    if (e != null && e.endpoint != null && e.params != null) {
+                        entries.add(e);
+                    }
+                } catch (JsonParseException ex) {
+                    System.out.println("Skipping malformed slow query log line: " + line);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Runs the core of a logged /raster or /route query again, searching for routes afresh
+     * rather than looking them up in the route cache. Other endpoints are ignored.
+     * @return true if the query was replayed.
+     */
+    static boolean replay(Entry e, GraphDB g, Rasterer r) {
+        return replay(e, g, r, raster -> { });
+    }
+
+    /**
+     * Like replay above, also handing the result of a replayed /raster query to rendered, for
+     * callers that want to draw it too. A query that fails is reported and not counted.
+     */
+    static boolean replay(Entry e, GraphDB g, Rasterer r,
+                          Consumer<Map<String, Object>> rendered) {
+        try {
+            if (e.endpoint.equals("/raster") && r != null) {
+                rendered.accept(r.getMapRaster(toDoubles(e.params)));
+                return true;
+            } else if (e.endpoint.equals("/route") && g != null) {
+                Map<String, Double> p = toDoubles(e.params);
+                Router.routeOnEdges(g, p.get("start_lon"), p.get("start_lat"), p.get("end_lon"),
+                        p.get("end_lat"), RouteLimits.DEFAULT, false);
+                return true;
+            }
+        } catch (RuntimeException ex) {
+            System.out.println("Could not replay " + e.endpoint + " " + e.params + ": " + ex);
+        }
+        return false;
+    }
+
+    static Map<String, Double> toDoubles(Map<String, String> params) {
+        Map<String, Double> doubles = new HashMap<>();
+        for (Map.Entry<String, String> p : params.entrySet()) {
+            try {
+                doubles.put(p.getKey(), Double.parseDouble(p.getValue()));
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+        }
+        return doubles;
+    }
+
+    /**
+     * Replays a slow query log and prints how long each query takes now, next to how long it
+     * took when it was logged.
+     * Usage: java SlowQueryLog [log file] [osm file] [image root]
+     */
+    public static void main(String[] args) throws IOException {
+        String log = args.length > 0 ? args[0] : "slow_queries.log";
+        String osm = args.length > 1 ? args[1] : "berkeley.osm";
+        String img = args.length > 2 ? args[2] : "img/";
+        GraphDB g = new GraphDB(osm);
+        Rasterer r = new Rasterer(img);
+        for (Entry e : read(log)) {
+            long start = System.nanoTime();
+            if (replay(e, g, r)) {
+                System.out.printf("%-8s logged %8.1f ms, replayed %8.1f ms  %s%n", e.endpoint,
+                        e.millis, (System.nanoTime() - start) / 1e6, e.params);
+            }
+        }
+    }
+}
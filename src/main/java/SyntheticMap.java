@@ -0,0 +1,400 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Generates a synthetic city of any size, as an OSM XML file the server can load in place of
+ * berkeley.osm, and optionally a matching tile pyramid in the layout of img/, so that importing,
+ * routing and rastering can be tried at scales far beyond the Berkeley extract.
+ *
+ * The streets form a jittered grid over the map's bounding box. Every eighth street is an
+ * arterial, never interrupted and tagged tertiary, secondary or primary; the local streets in
+ * between lose a tenth of their blocks at random, which leaves the mix of crossings, T
+ * junctions and dead ends of a real street network. A few local blocks are service roads, which
+ * the importer skips, as it does in real data. Named points of interest are scattered over the
+ * map with the tags that rank search results.
+ *
+ * Everything is a pure function of the seed and a node's grid position, so the file and the
+ * tiles are written streaming, in memory independent of the size of the city.
+ */
+public class SyntheticMap {
+    /** Highway types of arterials, by how many times two divides their street's index / 8. */
+    private static final String[] ARTERIAL_TYPES = {"tertiary", "secondary", "primary"};
+    /** Highway types of local streets, most common first. */
+    private static final String[] LOCAL_TYPES = {"residential", "residential", "residential",
+        "residential", "residential", "unclassified", "unclassified", "living_street"};
+    /** Highway type of the blocks the importer is meant to skip. */
+    private static final String IGNORED_TYPE = "service";
+    private static final int ARTERIAL_SPACING = 8;
+    /** Longest run of blocks in one way; longer streets are split into several ways. */
+    private static final int WAY_BLOCKS = 16;
+    private static final double DROPPED_BLOCKS = 0.1;
+    private static final double SERVICE_BLOCKS = 0.03;
+    /** How far, as a fraction of the grid spacing, a node may be moved off the grid. */
+    private static final double JITTER = 0.3;
+    /** One point of interest is generated for this many street nodes. */
+    private static final int NODES_PER_PLACE = 20;
+
+    private static final String[] WORDS = {"Oak", "Cedar", "Maple", "Walnut", "Cherry", "Elm",
+        "Willow", "Spruce", "Aspen", "Birch", "Laurel", "Magnolia", "Hillside", "Lake", "River",
+        "Summit", "Harbor", "Meadow", "Sunset", "Golden", "Pioneer", "Mission", "Union", "Grand",
+        "Shattuck", "Telegraph", "College", "Ashby", "Dwight", "Channing", "Bancroft", "Hearst"};
+    private static final String[][] PLACE_KINDS = {{"amenity", "cafe", "Cafe"},
+        {"amenity", "restaurant", "Kitchen"}, {"amenity", "library", "Library"},
+        {"amenity", "school", "School"}, {"shop", "bakery", "Bakery"},
+        {"shop", "books", "Books"}, {"leisure", "park", "Park"},
+        {"tourism", "museum", "Museum"}, {"historic", "monument", "Monument"}};
+
+    static {
+        for (String type : ARTERIAL_TYPES) {
+            checkAllowed(type, true);
+        }
+        for (String type : LOCAL_TYPES) {
+            checkAllowed(type, true);
+        }
+        checkAllowed(IGNORED_TYPE, false);
+    }
+
+    private final int rows;
+    private final int cols;
+    private final long seed;
+    private final double ullon;
+    private final double ullat;
+    private final double lonStep;
+    private final double latStep;
+
+    /**
+     * A city of rows * cols street nodes covering the box from (ullon, ullat) to (lrlon, lrlat).
+     */
+    SyntheticMap(int rows, int cols, long seed, double ullon, double ullat, double lrlon,
+                 double lrlat) {
+        this.rows = rows;
+        this.cols = cols;
+        this.seed = seed;
+        this.ullon = ullon;
+        this.ullat = ullat;
+        lonStep = (lrlon - ullon) / cols;
+        latStep = (ullat - lrlat) / rows;
+    }
+
+    /** A city of about the given number of street nodes over the map's usual bounding box. */
+    static SyntheticMap ofSize(long nodes, long seed) {
+        int side = (int) Math.ceil(Math.sqrt(nodes));
+        int rows = (int) Math.max(1, (nodes + side - 1) / side);
+        return new SyntheticMap(rows, side, seed, MapServer.ROOT_ULLON, MapServer.ROOT_ULLAT,
+                MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT);
+    }
+
+    /** Writes the city as OSM XML: the street nodes, the places, and then the ways. */
+    void writeOsm(OutputStream out) throws XMLStreamException {
+        XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        xml.writeStartDocument("UTF-8", "1.0");
+        xml.writeCharacters("\n");
+        xml.writeStartElement("osm");
+        xml.writeAttribute("version", "0.6");
+        xml.writeAttribute("generator", "SyntheticMap");
+        xml.writeCharacters("\n");
+        for (int r = 0; r < rows; r += 1) {
+            for (int c = 0; c < cols; c += 1) {
+                xml.writeEmptyElement("node");
+                writeNodeAttributes(xml, nodeId(r, c), lon(r, c), lat(r, c));
+                xml.writeCharacters("\n");
+            }
+        }
+        long places = (long) rows * cols / NODES_PER_PLACE;
+        for (long p = 0; p < places; p += 1) {
+            writePlace(xml, p);
+        }
+        long wayId = 1;
+        for (int r = 0; r < rows; r += 1) {
+            wayId = writeStreet(xml, wayId, true, r);
+        }
+        for (int c = 0; c < cols; c += 1) {
+            wayId = writeStreet(xml, wayId, false, c);
+        }
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+        xml.writeEndDocument();
+        xml.close();
+    }
+
+    /**
+     * Writes the ways of one street, a row if across is true and a column otherwise, starting
+     * at way id wayId. A way ends at every dropped block and every WAY_BLOCKS blocks.
+     * @return The next unused way id.
+     */
+    private long writeStreet(XMLStreamWriter xml, long wayId, boolean across, int line)
+            throws XMLStreamException {
+        int length = across ? cols : rows;
+        for (int first = 0; first + 1 < length; first += WAY_BLOCKS) {
+            int last = Math.min(length - 1, first + WAY_BLOCKS);
+            int start = first;
+            for (int i = first; i < last; i += 1) {
+                if (!hasBlock(across, line, i)) {
+                    wayId = writeWay(xml, wayId, across, line, start, i);
+                    start = i + 1;
+                }
+            }
+            wayId = writeWay(xml, wayId, across, line, start, last);
+        }
+        return wayId;
+    }
+
+    /** Writes the way along a street from node position from to position to, if it has a block. */
+    private long writeWay(XMLStreamWriter xml, long wayId, boolean across, int line, int from,
+                          int to) throws XMLStreamException {
+        if (to <= from) {
+            return wayId;
+        }
+        xml.writeStartElement("way");
+        xml.writeAttribute("id", Long.toString(wayId));
+        xml.writeCharacters("\n");
+        for (int i = from; i <= to; i += 1) {
+            xml.writeEmptyElement("nd");
+            xml.writeAttribute("ref", Long.toString(across ? nodeId(line, i) : nodeId(i, line)));
+            xml.writeCharacters("\n");
+        }
+        writeTag(xml, "highway", highwayType(across, line, from));
+        writeTag(xml, "name", WORDS[Math.floorMod(line * 7 + (across ? 0 : 3), WORDS.length)]
+                + " " + (line / WORDS.length + 1) + (across ? " Street" : " Avenue"));
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+        return wayId + 1;
+    }
+
+    /** Writes place p, a named node with a kind tag and a few of the tags search ranks by. */
+    private void writePlace(XMLStreamWriter xml, long p) throws XMLStreamException {
+        String[] kind = PLACE_KINDS[(int) (bits(3, p, 0) % PLACE_KINDS.length)];
+        double lon = ullon + uniform(4, p, 0) * lonStep * cols;
+        double lat = ullat - uniform(4, p, 1) * latStep * rows;
+        xml.writeStartElement("node");
+        writeNodeAttributes(xml, (long) rows * cols + 1 + p, lon, lat);
+        xml.writeCharacters("\n");
+        String name = WORDS[(int) (bits(5, p, 0) % WORDS.length)] + " "
+                + WORDS[(int) (bits(5, p, 1) % WORDS.length)] + " " + kind[2];
+        writeTag(xml, "name", name);
+        writeTag(xml, kind[0], kind[1]);
+        double extra = uniform(6, p, 0);
+        if (extra < 0.3) {
+            writeTag(xml, "website", "https://example.org/" + p);
+        }
+        if (extra < 0.1) {
+            writeTag(xml, "opening_hours", "Mo-Fr 09:00-17:00");
+        }
+        if (extra < 0.02) {
+            writeTag(xml, "wikipedia", "en:" + name);
+        }
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+    }
+
+    private static void writeNodeAttributes(XMLStreamWriter xml, long id, double lon, double lat)
+            throws XMLStreamException {
+        xml.writeAttribute("id", Long.toString(id));
+        xml.writeAttribute("lat", Double.toString(lat));
+        xml.writeAttribute("lon", Double.toString(lon));
+    }
+
+    private static void writeTag(XMLStreamWriter xml, String k, String v)
+            throws XMLStreamException {
+        xml.writeEmptyElement("tag");
+        xml.writeAttribute("k", k);
+        xml.writeAttribute("v", v);
+        xml.writeCharacters("\n");
+    }
+
+    /**
+     * Writes the tiles of depths 0 through maxDepth into dir, with a tileset.json describing
+     * them. Pyramids up to 8 levels deep are laid out like img/, deeper ones in the zxy layout,
+     * which keeps the number of files in a directory down; see TilePyramid. The tiles of each
+     * depth are drawn in parallel.
+     */
+    void writeTiles(File dir, int maxDepth) throws IOException {
+        dir.mkdirs();
+        TilePyramid pyramid = new TilePyramid(dir.getPath() + "/", ullon, ullat,
+                ullon + lonStep * cols, ullat - latStep * rows, maxDepth,
+                maxDepth > 8 ? TilePyramid.Layout.ZXY : TilePyramid.Layout.QUADRANT);
+        for (int depth = 0; depth <= maxDepth; depth += 1) {
+            int side = 1 << depth;
+            int d = depth;
+            IntStream.range(0, side * side).parallel().forEach(i -> {
+                int x = i % side;
+                int y = i / side;
+                File f = new File(pyramid.path(d, x, y));
+                f.getParentFile().mkdirs();
+                try {
+                    ImageIO.write(tile(d, x, y), "png", f);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        pyramid.writeMetadata();
+    }
+
+    /**
+     * Draws tile (x, y) of the given depth. Local streets are left out of tiles where they
+     * would be less than two pixels apart, so that tiles of the whole city stay cheap to draw.
+     */
+    BufferedImage tile(int depth, int x, int y) {
+        int size = MapServer.TILE_SIZE;
+        double tileLon = lonStep * cols / (1 << depth);
+        double tileLat = latStep * rows / (1 << depth);
+        double west = ullon + x * tileLon;
+        double north = ullat - y * tileLat;
+        double xScale = size / tileLon;
+        double yScale = size / tileLat;
+        boolean locals = Math.min(lonStep * xScale, latStep * yScale) >= 2;
+
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(242, 239, 233));
+        g.fillRect(0, 0, size, size);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int r0 = Math.max(0, (int) Math.floor((ullat - north) / latStep) - 1);
+        int r1 = Math.min(rows - 1, (int) Math.ceil((ullat - north + tileLat) / latStep) + 1);
+        int c0 = Math.max(0, (int) Math.floor((west - ullon) / lonStep) - 1);
+        int c1 = Math.min(cols - 1, (int) Math.ceil((west - ullon + tileLon) / lonStep) + 1);
+        float width = (float) Math.max(1, Math.min(8, Math.min(lonStep * xScale,
+                latStep * yScale) / 4));
+        Line2D.Double line = new Line2D.Double();
+        /* Local streets first, so that arterials are drawn over them. */
+        for (int pass = 0; pass < 2; pass += 1) {
+            boolean arterials = pass == 1;
+            if (!arterials && !locals) {
+                continue;
+            }
+            g.setColor(arterials ? new Color(252, 214, 164) : Color.WHITE);
+            g.setStroke(new BasicStroke(arterials ? width * 1.5f : width, BasicStroke.CAP_ROUND,
+                    BasicStroke.JOIN_ROUND));
+            for (int r = r0; r <= r1; r += 1) {
+                if (isArterial(r) != arterials) {
+                    continue;
+                }
+                for (int c = c0; c <= c1 && c + 1 < cols; c += 1) {
+                    if (hasBlock(true, r, c)) {
+                        line.setLine((lon(r, c) - west) * xScale, (north - lat(r, c)) * yScale,
+                                (lon(r, c + 1) - west) * xScale, (north - lat(r, c + 1)) * yScale);
+                        g.draw(line);
+                    }
+                }
+            }
+            for (int c = c0; c <= c1; c += 1) {
+                if (isArterial(c) != arterials) {
+                    continue;
+                }
+                for (int r = r0; r <= r1 && r + 1 < rows; r += 1) {
+                    if (hasBlock(false, c, r)) {
+                        line.setLine((lon(r, c) - west) * xScale, (north - lat(r, c)) * yScale,
+                                (lon(r + 1, c) - west) * xScale, (north - lat(r + 1, c)) * yScale);
+                        g.draw(line);
+                    }
+                }
+            }
+        }
+        g.dispose();
+        return img;
+    }
+
+    private long nodeId(int r, int c) {
+        return (long) r * cols + c + 1;
+    }
+
+    double lon(int r, int c) {
+        return ullon + (c + 0.5 + JITTER * (2 * uniform(0, r, c) - 1)) * lonStep;
+    }
+
+    double lat(int r, int c) {
+        return ullat - (r + 0.5 + JITTER * (2 * uniform(1, r, c) - 1)) * latStep;
+    }
+
+    /**
+     * Returns true if the block from position i to i + 1 of a street, a row if across is true
+     * and a column otherwise, is there. Arterials have all their blocks.
+     */
+    boolean hasBlock(boolean across, int line, int i) {
+        return isArterial(line) || uniform(across ? 2 : 7, line, i) >= DROPPED_BLOCKS;
+    }
+
+    private static boolean isArterial(int line) {
+        return line % ARTERIAL_SPACING == 0;
+    }
+
+    /** Returns the highway type of the way along a street that starts at position i. */
+    private String highwayType(boolean across, int line, int i) {
+        if (isArterial(line)) {
+            int rank = Integer.numberOfTrailingZeros(line / ARTERIAL_SPACING | 1 << 30);
+            return ARTERIAL_TYPES[Math.min(ARTERIAL_TYPES.length - 1, rank)];
+        }
+        if (uniform(across ? 8 : 9, line, i / WAY_BLOCKS) < SERVICE_BLOCKS) {
+            return IGNORED_TYPE;
+        }
+        return LOCAL_TYPES[(int) (bits(across ? 10 : 11, line, 0) % LOCAL_TYPES.length)];
+    }
+
+    /** Returns a number in [0, 1) that depends only on the seed and the arguments. */
+    private double uniform(int stream, long a, long b) {
+        return (bits(stream, a, b) >>> 11) * 0x1.0p-53;
+    }
+
+    /** Returns non-negative random bits that depend only on the seed and the arguments. */
+    private long bits(int stream, long a, long b) {
+        long h = mix(seed ^ mix(stream + 0x9E3779B97F4A7C15L * (a + 1)) ^ mix(b * 31 + 17));
+        return h & Long.MAX_VALUE;
+    }
+
+    /** The SplitMix64 finalizer. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static void checkAllowed(String type, boolean allowed) {
+        if (GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES.contains(type) != allowed) {
+            throw new IllegalStateException("Highway type " + type + " is "
+                    + (allowed ? "not " : "") + "imported by GraphBuildingHandler");
+        }
+    }
+
+    /**
+     * Usage: SyntheticMap [nodes] [osm file] [tile directory] [tile depth]
+     * Writes a city of about nodes street nodes (default 100000) to the OSM file (default
+     * synthetic.osm), and its tiles of depth 0 through the tile depth (default 7) to the tile
+     * directory, if one is given. The seed is bearmaps.synthetic.seed.
+     */
+    public static void main(String[] args) throws IOException, XMLStreamException {
+        long nodes = args.length > 0 ? Long.parseLong(args[0]) : 100000;
+        String osm = args.length > 1 ? args[1] : "synthetic.osm";
+        String tiles = args.length > 2 ? args[2] : null;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 7;
+        SyntheticMap map = ofSize(nodes, Long.getLong("bearmaps.synthetic.seed", 61));
+
+        long start = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(osm), 1 << 16)) {
+            map.writeOsm(out);
+        }
+        System.out.printf("Wrote %d x %d street nodes to %s in %d ms%n", map.rows, map.cols, osm,
+                (System.nanoTime() - start) / 1000000);
+        if (tiles != null) {
+            start = System.nanoTime();
+            map.writeTiles(new File(tiles), depth);
+            System.out.printf("Wrote tiles of depth 0 to %d to %s in %d ms%n", depth, tiles,
+                    (System.nanoTime() - start) / 1000000);
+        }
+    }
+}
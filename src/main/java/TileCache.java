@@ -0,0 +1,186 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+
+/**
+ * Caches the tiles of a slow source, such as a TileRenderer, in memory and on disk. The most
+ * recently used tiles are kept in memory, and every tile is written to dir/d/x/y.png, so that a
+ * tile is drawn once per cache directory rather than once per request. Requests for a tile that
+ * is being drawn wait for that drawing instead of starting their own. A cache directory holds a
+ * MARKER file, by which deleteSiblings tells the directories of tile caches from others.
+ */
+public class TileCache implements TileSource {
+    /** The file marking a directory as a tile cache's. */
+    static final String MARKER = ".bearmaps-tile-cache";
+
+    private final TileSource source;
+    private final File dir;
+    private final int capacity;
+    private final LinkedHashMap<Long, BufferedImage> memory;
+    /** The tiles being fetched from disk or source, by key. */
+    private final ConcurrentHashMap<Long, CompletableFuture<BufferedImage>> pending =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @param source Where tiles not cached yet come from.
+     * @param dir The directory tiles are cached in; created when the first tile is written.
+     * @param capacity How many tiles to keep in memory.
+     */
+    public TileCache(TileSource source, File dir, int capacity) {
+        this.source = source;
+        this.dir = dir;
+        this.capacity = capacity;
+        this.memory = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+                return size() > TileCache.this.capacity;
+            }
+        };
+    }
+
+    @Override
+    public BufferedImage tile(int d, int x, int y) {
+        long key = key(d, x, y);
+        BufferedImage img = remembered(key);
+        if (img != null) {
+            return img;
+        }
+        CompletableFuture<BufferedImage> f = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> running = pending.putIfAbsent(key, f);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            img = load(d, x, y);
+            remember(key, img);
+            f.complete(img);
+            return img;
+        } catch (RuntimeException | Error e) {
+            f.completeExceptionally(e);
+            throw e;
+        } finally {
+            pending.remove(key);
+        }
+    }
+
+    /** Returns the cache directory. */
+    public File dir() {
+        return dir;
+    }
+
+    /**
+     * Deletes the other tile cache directories next to this cache's, such as the caches of
+     * earlier versions of the data. Only directories holding a MARKER file are deleted.
+     * @return How many directories were deleted.
+     */
+    public int deleteSiblings() {
+        File[] siblings = dir.getAbsoluteFile().getParentFile().listFiles();
+        int deleted = 0;
+        if (siblings == null) {
+            return deleted;
+        }
+        for (File f : siblings) {
+            if (f.isDirectory() && !f.getName().equals(dir.getName())
+                    && new File(f, MARKER).isFile()) {
+                delete(f);
+                deleted += 1;
+            }
+        }
+        return deleted;
+    }
+
+    /** Forgets every cached tile, deleting the cache directory. */
+    public void clear() {
+        synchronized (this) {
+            memory.clear();
+        }
+        delete(dir);
+    }
+
+    /** Reads tile (x, y) of depth d from disk, or has source draw it and writes it there. */
+    private BufferedImage load(int d, int x, int y) {
+        File f = new File(dir, d + "/" + x + "/" + y + ".png");
+        if (f.exists()) {
+            try {
+                BufferedImage img = ImageIO.read(f);
+                if (img != null) {
+                    return img;
+                }
+            } catch (IOException e) {
+                /* A damaged file is drawn again and overwritten. */
+            }
+        }
+        BufferedImage img = source.tile(d, x, y);
+        if (img != null) {
+            mark();
+            write(img, f);
+        }
+        return img;
+    }
+
+    /** Creates the cache directory and its MARKER file, unless they exist already. */
+    private void mark() {
+        File marker = new File(dir, MARKER);
+        if (marker.isFile()) {
+            return;
+        }
+        try {
+            Files.createDirectories(dir.toPath());
+            marker.createNewFile();
+        } catch (IOException e) {
+            System.out.println("Could not mark tile cache " + dir + ": " + e);
+        }
+    }
+
+    /**
+     * Writes img to f through a temporary file, so that a reader never sees half a tile. A tile
+     * that cannot be written is only cached in memory.
+     */
+    private static void write(BufferedImage img, File f) {
+        try {
+            Files.createDirectories(f.getParentFile().toPath());
+            File tmp = File.createTempFile("tile", ".tmp", f.getParentFile());
+            try {
+                ImageIO.write(img, "png", tmp);
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        } catch (IOException e) {
+            System.out.println("Could not cache tile " + f + ": " + e);
+        }
+    }
+
+    private synchronized BufferedImage remembered(long key) {
+        return memory.get(key);
+    }
+
+    private synchronized void remember(long key, BufferedImage img) {
+        if (img != null && capacity > 0) {
+            memory.put(key, img);
+        }
+    }
+
+    /** Packs a tile's address into a long; depths go up to TilePyramid.MAX_DEPTH, 29. */
+    private static long key(int d, int x, int y) {
+        return ((long) d << 58) | ((long) x << 29) | y;
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
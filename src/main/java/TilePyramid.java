@@ -0,0 +1,313 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * The layout of a pyramid of map tiles: the box the root tile covers, the deepest level, and
+ * where the image of each tile is. Tile (x, y) of depth d, counted from the north-west corner,
+ * covers 1 / 2^d of the box's width and height, so which tiles a query needs, and what they
+ * cover, is plain arithmetic; nothing is kept per tile, and a pyramid of any depth takes the
+ * same memory.
+ *
+ * The layout is read from tileset.json in the image directory, such as
+ * {"ullon": -122.2998, "ullat": 37.8922, "lrlon": -122.2119, "lrlat": 37.8228, "depth": 7,
+ * "layout": "quadrant"}. Without one, the pyramid is the Berkeley one of MapServer.ROOT_*, 7
+ * levels deep. An optional "maxDepth" limits how deep rasters go, for pyramids deeper than is
+ * worth compositing whole images of; it defaults to the depth.
+ *
+ * In the quadrant layout, used by img/, the root tile is root.png and every other tile is
+ * named by one digit per level for the quadrant it is in, 1 to 4 for north-west, north-east,
+ * south-west and south-east. In the zxy layout, suited to deep pyramids, tile (x, y) of depth
+ * d is d/x/y.png.
+ */
+public class TilePyramid {
+    static final String METADATA = "tileset.json";
+    static final int DEFAULT_DEPTH = 7;
+    /** The deepest a pyramid may be, so that a tile's depth, column and row fit in a long
+     * together, as TileCache keeps them. */
+    static final int MAX_DEPTH = 29;
+    /** What is drawn where there is no tile, and no ancestor to stretch over it either. */
+    static final Color BACKGROUND = new Color(242, 239, 233);
+
+    /** How tiles are named. */
+    enum Layout { QUADRANT, ZXY }
+
+    /** The contents of tileset.json; missing fields take the defaults. */
+    private static class Metadata {
+        Double ullon;
+        Double ullat;
+        Double lrlon;
+        Double lrlat;
+        Integer depth;
+        Integer maxDepth;
+        String layout;
+    }
+
+    private final String root;
+    private final double ullon;
+    private final double ullat;
+    private final double lrlon;
+    private final double lrlat;
+    private final int depth;
+    private final int maxDepth;
+    private final Layout layout;
+
+    /**
+     * @param root The image directory, ending in a '/'.
+     * @param depth The depth of the deepest tiles; the root tile has depth 0.
+     */
+    public TilePyramid(String root, double ullon, double ullat, double lrlon, double lrlat,
+                       int depth, Layout layout) {
+        this(root, ullon, ullat, lrlon, lrlat, depth, depth, layout);
+    }
+
+    /** @param maxDepth The deepest depth rasters are made of, at most depth. */
+    public TilePyramid(String root, double ullon, double ullat, double lrlon, double lrlat,
+                       int depth, int maxDepth, Layout layout) {
+        if (depth < 0 || depth > MAX_DEPTH || maxDepth < 0 || maxDepth > depth) {
+            throw new IllegalArgumentException("Bad pyramid depth " + depth + ", maxDepth "
+                    + maxDepth + "; depths go from 0 to " + MAX_DEPTH);
+        }
+        this.root = root;
+        this.ullon = ullon;
+        this.ullat = ullat;
+        this.lrlon = lrlon;
+        this.lrlat = lrlat;
+        this.depth = depth;
+        this.maxDepth = maxDepth;
+        this.layout = layout;
+    }
+
+    /**
+     * Returns the pyramid described by the tileset.json in imgRoot, or the default pyramid if
+     * there is none.
+     */
+    public static TilePyramid read(String imgRoot) {
+        String root = imgRoot.endsWith("/") ? imgRoot : imgRoot + "/";
+        Metadata m = new Metadata();
+        File metadata = new File(root + METADATA);
+        if (metadata.exists()) {
+            try (Reader in = new FileReader(metadata)) {
+                m = new Gson().fromJson(in, Metadata.class);
+            } catch (IOException | JsonParseException e) {
+                throw new IllegalArgumentException("Could not read " + metadata + ": " + e);
+            }
+        }
+        int depth = m.depth != null ? m.depth : DEFAULT_DEPTH;
+        return new TilePyramid(root,
+                m.ullon != null ? m.ullon : MapServer.ROOT_ULLON,
+                m.ullat != null ? m.ullat : MapServer.ROOT_ULLAT,
+                m.lrlon != null ? m.lrlon : MapServer.ROOT_LRLON,
+                m.lrlat != null ? m.lrlat : MapServer.ROOT_LRLAT,
+                depth, m.maxDepth != null ? m.maxDepth : depth,
+                m.layout != null ? Layout.valueOf(m.layout.toUpperCase()) : Layout.QUADRANT);
+    }
+
+    /** Writes this pyramid's tileset.json into its image directory. */
+    void writeMetadata() throws IOException {
+        try (Writer out = new FileWriter(root + METADATA)) {
+            out.write(new Gson().toJson(describe()));
+        }
+    }
+
+    /** Returns the extent, depth and layout of this pyramid, as in tileset.json. */
+    public Map<String, Object> describe() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("ullon", ullon);
+        m.put("ullat", ullat);
+        m.put("lrlon", lrlon);
+        m.put("lrlat", lrlat);
+        m.put("depth", depth);
+        m.put("maxDepth", maxDepth);
+        m.put("layout", layout.name().toLowerCase());
+        return m;
+    }
+
+    public double ullon() {
+        return ullon;
+    }
+
+    public double ullat() {
+        return ullat;
+    }
+
+    public double lrlon() {
+        return lrlon;
+    }
+
+    public double lrlat() {
+        return lrlat;
+    }
+
+    /** Returns the depth of the deepest tiles. */
+    public int depth() {
+        return depth;
+    }
+
+    /** Returns the deepest depth rasters are made of. */
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** Returns the number of degrees of longitude a tile of the given depth spans. */
+    public double tileWidth(int d) {
+        return (lrlon - ullon) / (1L << d);
+    }
+
+    /** Returns the number of degrees of latitude a tile of the given depth spans. */
+    public double tileHeight(int d) {
+        return (ullat - lrlat) / (1L << d);
+    }
+
+    /**
+     * Returns the shallowest depth whose tiles have at most lonDPP degrees of longitude per
+     * pixel, or maxDepth if none up to it has.
+     */
+    public int depthFor(double lonDPP) {
+        double rootDPP = (lrlon - ullon) / MapServer.TILE_SIZE;
+        int d = (int) Math.max(0, Math.min(maxDepth, Math.ceil(Math.log(rootDPP / lonDPP)
+                / Math.log(2))));
+        /* Settle any rounding in the logarithm with the exact comparison. */
+        while (d > 0 && tileWidth(d - 1) / MapServer.TILE_SIZE <= lonDPP) {
+            d -= 1;
+        }
+        while (d < maxDepth && tileWidth(d) / MapServer.TILE_SIZE > lonDPP) {
+            d += 1;
+        }
+        return d;
+    }
+
+    /** Returns true if the box overlaps the pyramid's, edges excluded. */
+    public boolean intersects(double qullon, double qullat, double qlrlon, double qlrlat) {
+        return qullon < lrlon && qlrlon > ullon && qullat > lrlat && qlrlat < ullat;
+    }
+
+    /** Returns the column of the tiles of depth d that holds longitude lon, unclamped. */
+    double column(int d, double lon) {
+        return (lon - ullon) / tileWidth(d);
+    }
+
+    /** Returns the row of the tiles of depth d that holds latitude lat, unclamped. */
+    double row(int d, double lat) {
+        return (ullat - lat) / tileHeight(d);
+    }
+
+    /** Returns the path of the image of tile (x, y) of depth d. */
+    public String path(int d, int x, int y) {
+        if (layout == Layout.ZXY) {
+            return root + d + "/" + x + "/" + y + ".png";
+        }
+        return root + quadrantName(d, x, y) + ".png";
+    }
+
+    /** Returns the name of tile (x, y) of depth d in the quadrant layout. */
+    static String quadrantName(int d, int x, int y) {
+        if (d == 0) {
+            return "root";
+        }
+        StringBuilder name = new StringBuilder(d);
+        for (int level = d - 1; level >= 0; level -= 1) {
+            name.append((char) ('1' + ((x >> level) & 1) + 2 * ((y >> level) & 1)));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Returns {depth, x, y} of the tile whose image is at path, as returned by path, or null if
+     * path is not the path of a tile of this pyramid.
+     */
+    public int[] locate(String path) {
+        if (!path.startsWith(root) || !path.endsWith(".png")) {
+            return null;
+        }
+        String name = path.substring(root.length(), path.length() - ".png".length());
+        try {
+            if (layout == Layout.ZXY) {
+                String[] parts = name.split("/");
+                return parts.length == 3 ? new int[] {Integer.parseInt(parts[0]),
+                    Integer.parseInt(parts[1]), Integer.parseInt(parts[2])} : null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (name.equals("root")) {
+            return new int[] {0, 0, 0};
+        }
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < name.length(); i += 1) {
+            int q = name.charAt(i) - '1';
+            if (q < 0 || q > 3) {
+                return null;
+            }
+            x = 2 * x + (q & 1);
+            y = 2 * y + (q >> 1);
+        }
+        return new int[] {name.length(), x, y};
+    }
+
+    /** Returns a source reading the tiles' images from the files named by path. */
+    public TileSource files() {
+        return (d, x, y) -> {
+            File f = new File(path(d, x, y));
+            if (!f.exists()) {
+                return null;
+            }
+            try {
+                return ImageIO.read(f);
+            } catch (IOException e) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the image of tile (x, y) of depth d from source. If source has none, the closest
+     * ancestor it has is cropped to the part the tile covers and stretched over it, so that a
+     * pyramid can be deeper than the tiles it has; if it has no ancestor either, the tile is
+     * left blank.
+     */
+    public BufferedImage image(TileSource source, int d, int x, int y) {
+        BufferedImage tile = source.tile(d, x, y);
+        if (tile != null) {
+            return tile;
+        }
+        int size = MapServer.TILE_SIZE;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        for (int up = 1; up <= d; up += 1) {
+            BufferedImage ancestor = source.tile(d - up, x >> up, y >> up);
+            if (ancestor == null) {
+                continue;
+            }
+            /* The tile is a 1 / 2^up square of its ancestor, up to the ancestor's pixels. */
+            double part = (double) ancestor.getWidth() / (1L << up);
+            double sx = (x & ((1 << up) - 1)) * part;
+            double sy = (y & ((1 << up) - 1)) * part;
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(ancestor, 0, 0, size, size, (int) Math.floor(sx), (int) Math.floor(sy),
+                    (int) Math.max(Math.floor(sx) + 1, Math.ceil(sx + part)),
+                    (int) Math.max(Math.floor(sy) + 1, Math.ceil(sy + part)), null);
+            g.dispose();
+            return img;
+        }
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, size, size);
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,76 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws map tiles from the roads of a GraphDB, for pyramids, or parts of them, that have no
+ * images. Each tile asks the graph's segment index for the roads in its box, so drawing a tile
+ * takes time in proportion to the roads it shows, not to the size of the map.
+ */
+public class TileRenderer implements TileSource {
+    private static final Color CASING = new Color(200, 194, 186);
+    private static final Color ROAD = Color.WHITE;
+    /** Width of a road in degrees of longitude, about 5 meters; see roadWidth. */
+    private static final double ROAD_DEGREES = 0.00006;
+    private static final double MIN_ROAD_PX = 1;
+    private static final double MAX_ROAD_PX = 10;
+    private static final float CASING_PX = 2;
+
+    private final GraphDB graph;
+    private final TilePyramid pyramid;
+
+    public TileRenderer(GraphDB graph, TilePyramid pyramid) {
+        this.graph = graph;
+        this.pyramid = pyramid;
+    }
+
+    /** Draws tile (x, y) of depth d. Never returns null: a tile with no roads is blank. */
+    @Override
+    public BufferedImage tile(int d, int x, int y) {
+        int size = MapServer.TILE_SIZE;
+        double west = pyramid.ullon() + x * pyramid.tileWidth(d);
+        double north = pyramid.ullat() - y * pyramid.tileHeight(d);
+        double xScale = size / pyramid.tileWidth(d);
+        double yScale = size / pyramid.tileHeight(d);
+        float width = roadWidth(d);
+
+        /* Roads just outside the tile still reach into it by half their width. */
+        double marginX = (width + CASING_PX) / xScale;
+        double marginY = (width + CASING_PX) / yScale;
+        double[] s = graph.segmentsWithin(west - marginX, north - pyramid.tileHeight(d) - marginY,
+                west + pyramid.tileWidth(d) + marginX, north + marginY);
+        Path2D.Double roads = new Path2D.Double(Path2D.WIND_NON_ZERO, s.length / 2);
+        for (int i = 0; i < s.length; i += 4) {
+            roads.moveTo((s[i] - west) * xScale, (north - s[i + 1]) * yScale);
+            roads.lineTo((s[i + 2] - west) * xScale, (north - s[i + 3]) * yScale);
+        }
+
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(TilePyramid.BACKGROUND);
+        g.fillRect(0, 0, size, size);
+        if (s.length > 0) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(CASING);
+            g.setStroke(new BasicStroke(width + CASING_PX, BasicStroke.CAP_ROUND,
+                    BasicStroke.JOIN_ROUND));
+            g.draw(roads);
+            g.setColor(ROAD);
+            g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.draw(roads);
+        }
+        g.dispose();
+        return img;
+    }
+
+    /** Returns the width in pixels of roads at depth d: about their real width, within limits. */
+    private float roadWidth(int d) {
+        double degreesPerPixel = pyramid.tileWidth(d) / MapServer.TILE_SIZE;
+        return (float) Math.max(MIN_ROAD_PX, Math.min(MAX_ROAD_PX,
+                ROAD_DEGREES / degreesPerPixel));
+    }
+}
@@ -0,0 +1,13 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Where the images of the tiles of a TilePyramid come from: files scraped ahead of time, or
+ * anything else that can produce a tile on demand.
+ */
+public interface TileSource {
+    /**
+     * Returns the image of tile (x, y), counted from the north-west corner, of the given depth,
+     * or null if this source has none.
+     */
+    BufferedImage tile(int depth, int x, int y);
+}
@@ -0,0 +1,232 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the roads and named locations of one tile of a TilePyramid in a compact binary form,
+ * for clients that draw the map themselves. The roads are the graph's segments that overlap
+ * the tile, joined into polylines wherever a road runs through a vertex without branching,
+ * simplified by Douglas-Peucker to half a pixel of a TILE_SIZE tile of the tile's depth, so
+ * shallow tiles carry only the shape of the roads, and dropped if they would be smaller than
+ * that.
+ *
+ * Every number is a varint: seven bits per byte, least significant first, with the high bit
+ * set on all but the last byte. The tile is: the version, EXTENT, the number of polylines,
+ * each polyline as its number of points followed by its points, the number of locations, and
+ * each location as its point followed by the byte length and UTF-8 bytes of its name. Points
+ * are in tile units, (0, 0) at the north-west corner of the tile and (EXTENT, EXTENT) at the
+ * south-east, as the difference in x and then in y from the point before, starting from (0, 0)
+ * and carrying on from one polyline or location to the next; each difference is zigzag
+ * encoded, as (n << 1) ^ (n >> 63), so that small negative numbers stay short too. Segments
+ * that cross the edge of the tile are kept whole, so points may lie outside it.
+ */
+public class VectorTile {
+    static final int VERSION = 1;
+    /** The number of units across a tile. */
+    static final int EXTENT = 4096;
+    static final String CONTENT_TYPE = "application/x-bearmaps-vector";
+    /** How far simplification may move a road, in tile units: half a pixel. */
+    private static final double TOLERANCE = 0.5 * EXTENT / MapServer.TILE_SIZE;
+
+    private final ByteArrayOutputStream lines = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream locations = new ByteArrayOutputStream();
+    private int lineCount;
+    private int locationCount;
+    /** The last point written, which the next one is relative to. */
+    private long cursorX;
+    private long cursorY;
+    /** The polyline being collected, in tile units. */
+    private double[] xs = new double[64];
+    private double[] ys = new double[64];
+    private int points;
+
+    private final GraphDB graph;
+    private final double west;
+    private final double north;
+    private final double xScale;
+    private final double yScale;
+
+    private VectorTile(GraphDB graph, TilePyramid pyramid, int d, int x, int y) {
+        this.graph = graph;
+        this.west = pyramid.ullon() + x * pyramid.tileWidth(d);
+        this.north = pyramid.ullat() - y * pyramid.tileHeight(d);
+        this.xScale = EXTENT / pyramid.tileWidth(d);
+        this.yScale = EXTENT / pyramid.tileHeight(d);
+    }
+
+    /**
+     * Returns tile (x, y) of depth d of pyramid, with the roads of graph and up to
+     * maxLocations of its locations.
+     * @throws IllegalArgumentException if more than maxSegments road segments overlap the
+     * tile, as they do in the shallow tiles of a large map.
+     */
+    static byte[] encode(GraphDB graph, TilePyramid pyramid, int d, int x, int y,
+                         int maxLocations, int maxSegments) {
+        VectorTile t = new VectorTile(graph, pyramid, d, x, y);
+        double east = t.west + pyramid.tileWidth(d);
+        double south = t.north - pyramid.tileHeight(d);
+        int[] ends = graph.roadsWithin(t.west, south, east, t.north);
+        if (ends.length / 2 > maxSegments) {
+            throw new IllegalArgumentException("The tile would have " + ends.length / 2
+                    + " road segments, more than the " + maxSegments + " allowed");
+        }
+        t.addRoads(ends);
+        for (Map<String, Object> location
+                : graph.locationsWithin(t.west, south, east, t.north, null, maxLocations)) {
+            t.addLocation((double) location.get("lon"), (double) location.get("lat"),
+                    (String) location.get("name"));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                16 + t.lines.size() + t.locations.size());
+        writeVarint(out, VERSION);
+        writeVarint(out, EXTENT);
+        writeVarint(out, t.lineCount);
+        out.write(t.lines.toByteArray(), 0, t.lines.size());
+        writeVarint(out, t.locationCount);
+        out.write(t.locations.toByteArray(), 0, t.locations.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Adds the segments whose ends are given as pairs of vertex indexes, joined into polylines
+     * that run from one vertex that is not the middle of a road to the next. A vertex is the
+     * middle of a road if exactly two of the segments meet at it.
+     */
+    private void addRoads(int[] ends) {
+        int[] vertices = ends.clone();
+        Arrays.sort(vertices);
+        int distinct = 0;
+        for (int i = 0; i < vertices.length; i += 1) {
+            if (i == 0 || vertices[i] != vertices[i - 1]) {
+                vertices[distinct] = vertices[i];
+                distinct += 1;
+            }
+        }
+        /* Number the vertices locally, and list the segment ends at each: end e belongs to
+         * segment e / 2, whose other end is e ^ 1. */
+        int[] local = new int[ends.length];
+        int[] start = new int[distinct + 1];
+        for (int e = 0; e < ends.length; e += 1) {
+            local[e] = Arrays.binarySearch(vertices, 0, distinct, ends[e]);
+            start[local[e] + 1] += 1;
+        }
+        for (int v = 0; v < distinct; v += 1) {
+            start[v + 1] += start[v];
+        }
+        int[] incident = new int[ends.length];
+        int[] filled = Arrays.copyOf(start, distinct);
+        for (int e = 0; e < ends.length; e += 1) {
+            incident[filled[local[e]]] = e;
+            filled[local[e]] += 1;
+        }
+
+        boolean[] used = new boolean[ends.length / 2];
+        /* Start from the ends and junctions first; whatever is left over are loops. */
+        for (int pass = 0; pass < 2; pass += 1) {
+            for (int v = 0; v < distinct; v += 1) {
+                if (pass == 0 && start[v + 1] - start[v] == 2) {
+                    continue;
+                }
+                for (int k = start[v]; k < start[v + 1]; k += 1) {
+                    int e = incident[k];
+                    if (used[e / 2]) {
+                        continue;
+                    }
+                    points = 0;
+                    addPoint(vertices[v]);
+                    while (true) {
+                        used[e / 2] = true;
+                        int w = local[e ^ 1];
+                        addPoint(vertices[w]);
+                        if (start[w + 1] - start[w] != 2) {
+                            break;
+                        }
+                        int next = incident[start[w]] == (e ^ 1)
+                                ? incident[start[w] + 1] : incident[start[w]];
+                        if (used[next / 2]) {
+                            break;
+                        }
+                        e = next;
+                    }
+                    writeLine();
+                }
+            }
+        }
+    }
+
+    /** Appends vertex v to the polyline being collected. */
+    private void addPoint(int v) {
+        if (points == xs.length) {
+            xs = Arrays.copyOf(xs, points * 2);
+            ys = Arrays.copyOf(ys, points * 2);
+        }
+        xs[points] = (graph.lons[v] - west) * xScale;
+        ys[points] = (north - graph.lats[v]) * yScale;
+        points += 1;
+    }
+
+    /** Simplifies and writes the polyline collected, unless it is too small to see. */
+    private void writeLine() {
+        int[] kept = Polylines.simplify(xs, ys, 0, points, TOLERANCE);
+        long[] qx = new long[kept.length];
+        long[] qy = new long[kept.length];
+        int n = 0;
+        long minX = Long.MAX_VALUE;
+        long minY = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE;
+        long maxY = Long.MIN_VALUE;
+        for (int i : kept) {
+            long px = Math.round(xs[i]);
+            long py = Math.round(ys[i]);
+            if (n > 0 && px == qx[n - 1] && py == qy[n - 1]) {
+                continue;
+            }
+            qx[n] = px;
+            qy[n] = py;
+            n += 1;
+            minX = Math.min(minX, px);
+            minY = Math.min(minY, py);
+            maxX = Math.max(maxX, px);
+            maxY = Math.max(maxY, py);
+        }
+        if (n < 2 || (maxX - minX < TOLERANCE && maxY - minY < TOLERANCE)) {
+            return;
+        }
+        writeVarint(lines, n);
+        for (int i = 0; i < n; i += 1) {
+            writePoint(lines, qx[i], qy[i]);
+        }
+        lineCount += 1;
+    }
+
+    private void addLocation(double lon, double lat, String name) {
+        writePoint(locations, Math.round((lon - west) * xScale),
+                Math.round((north - lat) * yScale));
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        writeVarint(locations, bytes.length);
+        locations.write(bytes, 0, bytes.length);
+        locationCount += 1;
+    }
+
+    private void writePoint(ByteArrayOutputStream out, long x, long y) {
+        writeVarint(out, zigzag(x - cursorX));
+        writeVarint(out, zigzag(y - cursorY));
+        cursorX = x;
+        cursorY = y;
+    }
+
+    static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Warms up the JIT before the server takes traffic, by replaying a corpus of recorded /raster and
+ * /route queries in-process, round after round, until the replay rate stops improving or the
+ * time budget runs out. The corpus is a slow query log (see SlowQueryLog), or a file in the
+ * same format such as warmup_corpus.log. That file is a small sample, not a recording of real
+ * traffic: 8 /raster and 8 /route queries, the raster and route parameters of the 8 test cases
+ * in test_params.
+ *
+ * Warming up shares the server's JIT-compiled code and nothing else: the replayed routes are
+ * searched for without the route cache, which is left alone, and the queries never pass
+ * through Spark, so neither the request metrics nor the slow query log see them.
+ */
+public class WarmUp {
+    /** Consecutive rounds within the tolerance of each other that count as stable. */
+    private static final int STABLE_ROUNDS = 2;
+
+    private final List<SlowQueryLog.Entry> corpus;
+    private final long budgetMillis;
+    private final double tolerance;
+
+    /**
+     * @param corpus Queries to replay.
+     * @param budgetMillis Most time to spend warming up.
+     * @param tolerance Relative change in replay rate between rounds below which the rate is
+     *                  considered stable.
+     */
+    public WarmUp(List<SlowQueryLog.Entry> corpus, long budgetMillis, double tolerance) {
+        this.corpus = corpus;
+        this.budgetMillis = budgetMillis;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Replays the corpus with replay, which returns whether it handled a query, until the
+     * replay rate is stable or the budget is spent.
+     * @return The number of queries replayed.
+     */
+    public long run(Predicate<SlowQueryLog.Entry> replay) {
+        long start = System.nanoTime();
+        long deadline = start + budgetMillis * 1000000;
+        long total = 0;
+        double previousRate = 0;
+        int stable = 0;
+        int round = 0;
+        while (stable < STABLE_ROUNDS && System.nanoTime() < deadline && !corpus.isEmpty()) {
+            long roundStart = System.nanoTime();
+            long replayed = 0;
+            for (SlowQueryLog.Entry e : corpus) {
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+                if (replay.test(e)) {
+                    replayed += 1;
+                }
+            }
+            if (replayed == 0) {
+                break;
+            }
+            total += replayed;
+            round += 1;
+            double rate = replayed / ((System.nanoTime() - roundStart) / 1e9);
+            if (previousRate > 0 && Math.abs(rate - previousRate) <= tolerance * previousRate) {
+                stable += 1;
+            } else {
+                stable = 0;
+            }
+            previousRate = rate;
+            System.out.printf("warm-up round %d: %.0f queries/s%n", round, rate);
+        }
+        System.out.printf("warm-up replayed %d queries in %d ms%n", total,
+                (System.nanoTime() - start) / 1000000);
+        return total;
+    }
+
+    /**
+     * Reads a warm-up corpus from path, in the format of a slow query log: one JSON object per
+     * line, with the endpoint and its query parameters, such as warmup_corpus.log. Returns an
+     * empty corpus if the file cannot be read.
+     */
+    static List<SlowQueryLog.Entry> readCorpus(String path) {
+        try {
+            return SlowQueryLog.read(path);
+        } catch (IOException e) {
+            System.out.println("Could not read warm-up corpus " + path + ": " + e);
+            return new ArrayList<>();
+        }
+    }
+}
@@ -41,7 +41,7 @@ $(function() {
     /* Starting hyper-parameters #machinelearning */
     const zoom_delta = 0.04;
     const base_move_delta = 0.03;
-    const max_level = 7;
+    var max_level = 7; // Replaced by the deepest depth the server rasters once known
     const min_level = 2; // Level limits based on pulled data
     var wdpp = 0.00004291534423828125; // Starting wdpp for level 3
     var hdpp = 0.00003388335630702399; // Starting hdpp for level 3
@@ -57,6 +57,7 @@ $(function() {
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
     const search = host + '/search';
+    const tileset = host + '/tileset';
 
     /* ════════════════════════════ ೋღ HELPERS ღೋ ══════════════════════════ */
     /* Compute lat and lon by window size */
@@ -312,6 +313,14 @@ $(function() {
     loadCookies();
     setTheme();
     update();
+    $.get({
+        async: true,
+        url: tileset,
+        dataType: 'json',
+        success: function(data) {
+            max_level = data.maxDepth;
+        },
+    });
     /* Hide scroll bar */
     $('body').css('overflow', 'hidden');
 
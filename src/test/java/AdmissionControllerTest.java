@@ -0,0 +1,57 @@
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest {
+    @Test
+    public void testAdmitsUpToCapacityAndRejectsBeyond() throws Exception {
+        AdmissionController gate = new AdmissionController("test-admit", 4, 0, 0);
+        int a = gate.tryAcquire(3);
+        assertEquals(3, a);
+        assertEquals(1, gate.tryAcquire(1));
+        /* Full, and nobody may wait. */
+        assertEquals(0, gate.tryAcquire(1));
+        gate.release(a);
+        assertEquals(2, gate.tryAcquire(2));
+    }
+
+    @Test
+    public void testWaitsForCapacityToBeReleased() throws Exception {
+        AdmissionController gate = new AdmissionController("test-wait", 2, 1, 5000);
+        int held = gate.tryAcquire(2);
+        CompletableFuture<Integer> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return gate.tryAcquire(1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(waiter.isDone());
+        gate.release(held);
+        assertEquals(1, (int) waiter.get());
+    }
+
+    @Test
+    public void testRejectsAfterWaitingTooLong() throws Exception {
+        AdmissionController gate = new AdmissionController("test-timeout", 1, 1, 20);
+        assertEquals(1, gate.tryAcquire(1));
+        long start = System.nanoTime();
+        assertEquals(0, gate.tryAcquire(1));
+        assertTrue(System.nanoTime() - start >= 15000000);
+    }
+
+    @Test
+    public void testOversizedWorkIsRejectedEvenWhenIdle() throws Exception {
+        AdmissionController gate = new AdmissionController("test-oversized", 8, 4, 5000);
+        assertTrue(gate.fits(8));
+        assertFalse(gate.fits(9));
+        long start = System.nanoTime();
+        assertEquals(0, gate.tryAcquire(9));
+        /* Rejected at once, rather than after waiting. */
+        assertTrue(System.nanoTime() - start < 1000000000L);
+        assertEquals(8, gate.tryAcquire(8));
+    }
+}
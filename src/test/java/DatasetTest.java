@@ -0,0 +1,102 @@
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DatasetTest {
+    @Test
+    public void testPartsArePublishedTogether() throws Exception {
+        Dataset starting = new Dataset(null, null);
+        assertFalse(starting.has("graph"));
+        assertFalse(starting.has("rasterer"));
+
+        GraphDB g = TestGraphs.twoNodes();
+        Dataset withGraph = starting.withGraph(g);
+        assertTrue(withGraph.has("graph"));
+        assertFalse(withGraph.has("rasterer"));
+        assertSame(g, withGraph.graph());
+        assertEquals(starting.generation(), withGraph.generation());
+        /* A request that pinned the dataset before the graph was published still sees none. */
+        assertFalse(starting.has("graph"));
+    }
+
+    @Test
+    public void testReloadDrainsPinnedRequests() throws Exception {
+        Dataset old = new Dataset(TestGraphs.twoNodes(), null);
+        AtomicReference<Dataset> current = new AtomicReference<>(old);
+
+        /* A request pins the old dataset and keeps using it until told to finish. */
+        CountDownLatch pinned = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicReference<GraphDB> used = new AtomicReference<>();
+        Thread request = new Thread(() -> {
+            Dataset d = Dataset.pinCurrent(current);
+            pinned.countDown();
+            try {
+                finish.await();
+                used.set(d.graph());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                d.unpin();
+            }
+        });
+        request.start();
+        pinned.await();
+
+        /* The reload swaps in the next dataset; new requests pin that one. */
+        Dataset next = new Dataset(TestGraphs.twoNodes(), null);
+        assertSame(old, current.getAndSet(next));
+        Dataset later = Dataset.pinCurrent(current);
+        assertSame(next, later);
+        later.unpin();
+
+        /* The old dataset only drains once the request that pinned it is done. */
+        assertEquals(1, old.inFlight());
+        assertFalse(old.awaitDrained(20));
+        finish.countDown();
+        assertTrue(old.awaitDrained(5000));
+        request.join();
+        assertSame(old.graph(), used.get());
+        assertEquals(0, next.inFlight());
+        assertNotEquals(old.generation(), next.generation());
+    }
+
+    @Test
+    public void testLoadFailsOnUnreadableOrEmptyGraphs() throws Exception {
+        File missing = new File(Files.createTempDirectory("dataset").toFile(), "missing.osm");
+        try {
+            Dataset.load(missing.getPath(), "img/");
+            fail("Loaded a graph that does not exist");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("missing.osm"));
+        }
+
+        File truncated = File.createTempFile("truncated", ".osm");
+        truncated.deleteOnExit();
+        Files.write(truncated.toPath(), "<osm><node id=\"1\" lat=\"0\" lon=\"0\"".getBytes(
+                StandardCharsets.UTF_8));
+        try {
+            Dataset.load(truncated.getPath(), "img/");
+            fail("Loaded a truncated graph");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getCause() instanceof SAXException);
+        }
+
+        File empty = File.createTempFile("empty", ".osm");
+        empty.deleteOnExit();
+        Files.write(empty.toPath(), "<osm></osm>".getBytes(StandardCharsets.UTF_8));
+        try {
+            Dataset.load(empty.getPath(), "img/");
+            fail("Loaded a graph without roads");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("no roads"));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FuzzyIndexTest {
+    private static final List<String> NAMES = Arrays.asList("Chipotle", "Cheeseboard Pizza",
+            "Chipotle Mexican Grill", "Top Dog", "Berkeley Bowl", "Peet's Coffee", "Safeway");
+    private static final double[] SCORES = {1, 1, 1, 1, 1, 1, 1};
+
+    @Test
+    public void testTypos() {
+        FuzzyIndex index = new FuzzyIndex(NAMES, SCORES, 100, 100000);
+        assertEquals(Arrays.asList("Chipotle", "Chipotle Mexican Grill"),
+                index.search("chipolte", 5));
+        assertEquals("Berkeley Bowl", index.search("berkly bowl", 5).get(0));
+        assertEquals(Arrays.asList("Peet's Coffee"), index.search("Peets cofee", 5));
+        assertEquals(Collections.emptyList(), index.search("zzzzzz", 5));
+        assertEquals(Collections.emptyList(), index.search("", 5));
+        assertEquals(1, index.search("chipotle", 1).size());
+    }
+
+    @Test
+    public void testPrefixDistance() {
+        assertEquals(0, FuzzyIndex.prefixDistance("chip", "chipotle", 2));
+        assertEquals(1, FuzzyIndex.prefixDistance("chiq", "chipotle", 2));
+        assertEquals(2, FuzzyIndex.prefixDistance("chipolte", "chipotle", 2));
+        assertEquals(3, FuzzyIndex.prefixDistance("abcdef", "chipotle", 2));
+    }
+
+    @Test
+    public void testManyNamesStayWithinCandidateCap() {
+        Random r = new Random(7);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 20000; i += 1) {
+            char[] c = new char[8 + r.nextInt(8)];
+            for (int j = 0; j < c.length; j += 1) {
+                c[j] = (char) ('a' + r.nextInt(6));
+            }
+            names.add(new String(c));
+        }
+        names.add("Cheeseboard Pizza");
+        FuzzyIndex index = new FuzzyIndex(names, new double[names.size()], 50, 100000);
+        assertEquals(Arrays.asList("Cheeseboard Pizza"), index.search("cheesbored pizza", 3));
+    }
+}
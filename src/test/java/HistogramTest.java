@@ -0,0 +1,38 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+    @Test
+    public void testQuantilesWithinBucketPrecision() {
+        Histogram h = new Histogram();
+        for (long v = 1; v <= 100000; v += 1) {
+            h.record(v);
+        }
+        assertEquals(100000, h.count());
+        assertEquals(100000, h.max());
+        assertEquals(50000, h.quantile(0.5), 50000 * 0.04);
+        assertEquals(99000, h.quantile(0.99), 99000 * 0.04);
+        assertEquals(100000, h.quantile(1.0));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        Histogram h = new Histogram();
+        h.record(3);
+        h.record(7);
+        assertEquals(3, h.quantile(0.5));
+        assertEquals(7, h.quantile(0.9));
+        assertEquals(0, new Histogram().quantile(0.5));
+    }
+
+    @Test
+    public void testScrapeFormat() {
+        Metrics.histogram("test_latency_seconds", Metrics.labels("endpoint", "/x")).record(2000);
+        Metrics.increment("test_events_total", "", 3);
+        String text = Metrics.scrape();
+        assertTrue(text.contains("# TYPE test_latency_seconds summary"));
+        assertTrue(text.contains("test_latency_seconds_count{endpoint=\"/x\"} 1"));
+        assertTrue(text.contains("test_events_total 3"));
+    }
+}
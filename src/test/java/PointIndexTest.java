@@ -0,0 +1,65 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PointIndexTest {
+    private static final int N = 5000;
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random r = new Random(11);
+        double[] lons = new double[N];
+        double[] lats = new double[N];
+        for (int i = 0; i < N; i += 1) {
+            lons[i] = -122.3 + r.nextDouble() * 0.1;
+            lats[i] = 37.8 + r.nextDouble() * 0.1;
+        }
+        PointIndex index = new PointIndex(lons, lats);
+        assertEquals(N, index.size());
+
+        for (int q = 0; q < 50; q += 1) {
+            double west = -122.3 + r.nextDouble() * 0.1;
+            double south = 37.8 + r.nextDouble() * 0.1;
+            double east = west + r.nextDouble() * 0.03;
+            double north = south + r.nextDouble() * 0.03;
+            int[] found = index.within(west, south, east, north, i -> i % 2 == 0, N);
+            Arrays.sort(found);
+            int expected = 0;
+            for (int i = 0; i < N; i += 1) {
+                if (i % 2 == 0 && lons[i] >= west && lons[i] <= east && lats[i] >= south
+                        && lats[i] <= north) {
+                    assertEquals(i, found[expected]);
+                    expected += 1;
+                }
+            }
+            assertEquals(expected, found.length);
+
+            double lon = -122.3 + r.nextDouble() * 0.1;
+            double lat = 37.8 + r.nextDouble() * 0.1;
+            int[] nearest = index.nearest(lon, lat, 5, i -> i % 3 == 0);
+            Integer[] all = new Integer[N / 3 + 1];
+            for (int i = 0; i < all.length; i += 1) {
+                all[i] = i * 3;
+            }
+            Arrays.sort(all, (a, b) -> Double.compare(Math.hypot(lons[a] - lon, lats[a] - lat),
+                    Math.hypot(lons[b] - lon, lats[b] - lat)));
+            for (int i = 0; i < 5; i += 1) {
+                assertEquals((int) all[i], nearest[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testSmallAndEmpty() {
+        PointIndex empty = new PointIndex(new double[0], new double[0]);
+        assertEquals(0, empty.within(-1, -1, 1, 1, i -> true, 10).length);
+        assertEquals(0, empty.nearest(0, 0, 3, i -> true).length);
+
+        PointIndex one = new PointIndex(new double[] {1}, new double[] {2});
+        assertArrayEquals(new int[] {0}, one.nearest(0, 0, 3, i -> true));
+        assertEquals(0, one.within(1, 2, 1, 2, i -> true, 0).length);
+    }
+}
@@ -0,0 +1,63 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PolylinesTest {
+    @Test
+    public void testSimplifyKeepsCornersAndDropsNoise() {
+        /* An L of two noisy straight legs. */
+        Random r = new Random(5);
+        double[] xs = new double[41];
+        double[] ys = new double[41];
+        for (int i = 0; i <= 20; i += 1) {
+            xs[i] = i * 10;
+            ys[i] = r.nextDouble() - 0.5;
+            xs[20 + i] = 200 + r.nextDouble() - 0.5;
+            ys[20 + i] = i * 10;
+        }
+        xs[20] = 200;
+        ys[20] = 0;
+        assertArrayEquals(new int[] {0, 20, 40}, Polylines.simplify(xs, ys, 0, 41, 1));
+        assertEquals(41, Polylines.simplify(xs, ys, 0, 41, 0.001).length);
+        assertArrayEquals(new int[] {5, 6}, Polylines.simplify(xs, ys, 5, 7, 100));
+    }
+
+    @Test
+    public void testSimplifiedLineStaysWithinTolerance() {
+        Random r = new Random(8);
+        int n = 2000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 1; i < n; i += 1) {
+            xs[i] = xs[i - 1] + r.nextDouble();
+            ys[i] = ys[i - 1] + r.nextGaussian();
+        }
+        double tolerance = 3;
+        int[] kept = Polylines.simplify(xs, ys, 0, n, tolerance);
+        assertTrue(kept.length < n / 4);
+        for (int k = 0; k + 1 < kept.length; k += 1) {
+            for (int i = kept[k]; i <= kept[k + 1]; i += 1) {
+                double d2 = Polylines.distance2(xs[i], ys[i], xs[kept[k]], ys[kept[k]],
+                        xs[kept[k + 1]], ys[kept[k + 1]]);
+                assertTrue(d2 <= tolerance * tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void testClip() {
+        double[] s = {-10, 5, 30, 5};
+        assertTrue(Polylines.clip(s, 0, 0, 20, 10));
+        assertArrayEquals(new double[] {0, 5, 20, 5}, s, 1e-9);
+        s = new double[] {2, 2, 8, 8};
+        assertTrue(Polylines.clip(s, 0, 0, 20, 10));
+        assertArrayEquals(new double[] {2, 2, 8, 8}, s, 1e-9);
+        s = new double[] {-5, 0, 0, -5};
+        assertFalse(Polylines.clip(s, 0, 0, 20, 10));
+        s = new double[] {10, -10, 10, 30};
+        assertTrue(Polylines.clip(s, 0, 0, 20, 10));
+        assertArrayEquals(new double[] {10, 0, 10, 10}, s, 1e-9);
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PrefixIndexTest {
+    private static final List<String> NAMES = Arrays.asList("Chipotle", "Cheeseboard Pizza",
+            "Top Dog", "Chipotle", "Top-Dog", "Cafe Strada", "Caffe Mediterraneum", "C");
+    private static final double[] SCORES = {1, 4, 2, 1, 1, 3, 1, 1};
+
+    @Test
+    public void testPrefixMatchesCleanedNames() {
+        PrefixIndex index = new PrefixIndex(NAMES, SCORES, 3);
+        assertEquals(new HashSet<>(Arrays.asList("Chipotle", "Cheeseboard Pizza")),
+                new HashSet<>(index.withPrefix("ch")));
+        assertEquals(new HashSet<>(Arrays.asList("Top Dog", "Top-Dog")),
+                new HashSet<>(index.withPrefix("TOP")));
+        assertEquals(Arrays.asList("Cafe Strada", "Caffe Mediterraneum"),
+                index.withPrefix("caf"));
+        assertEquals(Collections.emptyList(), index.withPrefix("x"));
+    }
+
+    @Test
+    public void testEmptyPrefixAndDuplicates() {
+        PrefixIndex index = new PrefixIndex(NAMES, SCORES, 3);
+        assertEquals(7, index.size());
+        assertEquals(7, index.withPrefix("").size());
+        assertEquals(Arrays.asList("Top Dog"), index.withPrefix("top d"));
+        assertEquals(5, index.withPrefix("c").size());
+        assertEquals(Collections.emptyList(),
+                new PrefixIndex(Collections.emptyList(), new double[0], 3).withPrefix("a"));
+    }
+
+    @Test
+    public void testTopK() {
+        PrefixIndex index = new PrefixIndex(NAMES, SCORES, 3);
+        /* Cheeseboard Pizza scores 4, Cafe Strada 3, and the two Chipotles add up to 2. */
+        assertEquals(Arrays.asList("Cheeseboard Pizza", "Cafe Strada", "Chipotle"),
+                index.topWithPrefix("c", 10));
+        assertEquals(Arrays.asList("Cheeseboard Pizza", "Cafe Strada"),
+                index.topWithPrefix("C", 2));
+        assertEquals(Arrays.asList("Top Dog", "Top-Dog"), index.topWithPrefix("top", 3));
+        assertEquals(Arrays.asList("Cafe Strada", "Caffe Mediterraneum"),
+                index.topWithPrefix("caf", 3));
+        assertEquals(Collections.emptyList(), index.topWithPrefix("c", -1));
+    }
+
+    @Test
+    public void testOnlyRankingTagsAreKept() throws Exception {
+        GraphDB g = TestGraphs.osm(
+                "<node id=\"1\" lat=\"0\" lon=\"0\"><tag k=\"highway\" v=\"stop\"/>"
+                        + "<tag k=\"amenity\" v=\"cafe\"/></node>",
+                "<node id=\"2\" lat=\"0\" lon=\"0.01\"><tag k=\"amenity\" v=\"cafe\"/>"
+                        + "<tag k=\"name\" v=\"Cafe Two\"/><tag k=\"note\" v=\"x\"/></node>",
+                TestGraphs.node(3, 0.02, 0, "Cafe Three"), TestGraphs.way(10, 1, 2, 3));
+        /* A road vertex without a name keeps none of its tags. */
+        assertTrue(g.nodesMap.get(1L).info.isEmpty());
+        /* A location keeps its name and the tags it is ranked by. */
+        assertEquals(2, g.nodesMap.get(2L).info.size());
+        assertFalse(g.nodesMap.get(2L).info.containsKey("note"));
+        assertEquals(Arrays.asList("Cafe Two", "Cafe Three"), g.topLocationsByPrefix("cafe", 5));
+    }
+}
@@ -0,0 +1,58 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RouteCacheTest {
+    @Test
+    public void testHitsAndEviction() throws Exception {
+        GraphDB g = TestGraphs.twoNodes();
+        RouteCache cache = new RouteCache(2);
+        assertNull(cache.get(g, 1, 2));
+        cache.put(g, 1, 2, new long[] {1, 2});
+        cache.put(g, 2, 1, new long[] {2, 1});
+        assertArrayEquals(new long[] {1, 2}, cache.get(g, 1, 2));
+        cache.put(g, 1, 1, new long[] {1});
+        /* (2, 1) was the least recently used entry, so it is the one evicted. */
+        assertNull(cache.get(g, 2, 1));
+        assertNotNull(cache.get(g, 1, 2));
+        assertEquals(2, cache.size());
+        assertEquals(0.5, cache.hitRatio(), 1e-9);
+        assertTrue(cache.memoryBytes() > 0);
+    }
+
+    @Test
+    public void testInvalidatedBySnapshotChange() throws Exception {
+        GraphDB g = TestGraphs.twoNodes();
+        RouteCache cache = new RouteCache(8);
+        cache.put(g, 1, 2, new long[] {1, 2});
+        assertNotNull(cache.get(g, 1, 2));
+        GraphDB reloaded = TestGraphs.twoNodes();
+        assertNull(cache.get(reloaded, 1, 2));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRoutesBetweenPointsOnRoadsAreCached() throws Exception {
+        GraphDB g = TestGraphs.lShape();
+        RouteResult first = Router.routeOnEdges(g, 0.002, 0.0001, 0.0101, 0.008,
+                RouteLimits.DEFAULT);
+        assertTrue(first.found());
+        assertTrue(first.settled() > 0);
+        long hits = Router.cache().hits();
+
+        /* The same points snap to the same places, and are answered from the cache. */
+        RouteResult again = Router.routeOnEdges(g, 0.002, 0.0001, 0.0101, 0.008,
+                RouteLimits.DEFAULT);
+        assertEquals(hits + 1, Router.cache().hits());
+        assertEquals(0, again.settled());
+        assertArrayEquals(first.path, again.path);
+        assertArrayEquals(first.source, again.source, 0);
+        assertArrayEquals(first.target, again.target, 0);
+
+        /* Another point on the same road is another route. */
+        RouteResult other = Router.routeOnEdges(g, 0.003, 0.0001, 0.0101, 0.008,
+                RouteLimits.DEFAULT);
+        assertTrue(other.settled() > 0);
+        assertNotEquals(first.source[0], other.source[0], 0);
+    }
+}
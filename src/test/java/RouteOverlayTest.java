@@ -0,0 +1,43 @@
+import org.junit.Test;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+
+import static org.junit.Assert.*;
+
+public class RouteOverlayTest {
+    @Test
+    public void testSimplifiedPerDepthAndClippedToView() throws Exception {
+        TestGraphs.City city = TestGraphs.city(2500, 7);
+        SyntheticMap map = city.map;
+        GraphDB g = city.graph;
+        RouteResult route = Router.routeOnEdges(g, map.lon(0, 0), map.lat(0, 0),
+                map.lon(49, 49), map.lat(49, 49), RouteLimits.DEFAULT);
+        assertTrue(route.found());
+        RouteOverlay overlay = route.overlay(g);
+        assertSame(overlay, route.overlay(g));
+        assertEquals(route.path.length + 2, overlay.size());
+
+        /* Pixels as wide as the whole map keep only the ends; small ones keep every bend. */
+        double width = map.lon(49, 49) - map.lon(0, 0);
+        double height = map.lat(0, 0) - map.lat(49, 49);
+        assertEquals(2, overlay.simplified(0, width, height).length);
+        int[] deep = overlay.simplified(7, width / 5000, height / 5000);
+        assertTrue(deep.length > 2);
+        assertSame(deep, overlay.simplified(7, width / 5000, height / 5000));
+
+        /* A 256 pixel view of the middle of the map draws only what is in it. */
+        double dpp = width / 1024;
+        double ullon = map.lon(0, 0) + width * 3 / 8;
+        double ullat = map.lat(0, 0) - height * 3 / 8;
+        Path2D.Double path = overlay.path(7, ullon, ullat, dpp, height / 1024, 256, 256, 5);
+        assertNotNull(path);
+        Rectangle2D bounds = path.getBounds2D();
+        assertTrue(bounds.getMinX() >= -5 && bounds.getMaxX() <= 261);
+        assertTrue(bounds.getMinY() >= -5 && bounds.getMaxY() <= 261);
+        assertNull(overlay.path(7, ullon + width * 10, ullat, dpp, height / 1024, 256, 256, 5));
+
+        /* No route, nothing to draw. */
+        assertNull(RouteResult.NONE.overlay(g).path(7, ullon, ullat, dpp, dpp, 256, 256, 5));
+    }
+}
@@ -0,0 +1,37 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RouteStoreTest {
+    @Test
+    public void testSessionsAreIndependent() {
+        RouteStore store = new RouteStore(10, 60000);
+        store.put("alice", route(1, 2, 3));
+        store.put("bob", route(4, 5));
+        assertArrayEquals(new long[] {1, 2, 3}, store.get("alice").path);
+        store.clear("bob");
+        assertEquals(0, store.get("bob").path.length);
+        assertArrayEquals(new long[] {1, 2, 3}, store.get("alice").path);
+    }
+
+    @Test
+    public void testIdleSessionsAreEvicted() {
+        RouteStore store = new RouteStore(10, 1000);
+        store.put("alice", route(1));
+        store.evict(System.currentTimeMillis() + 5000);
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        RouteStore store = new RouteStore(10, 60000);
+        for (int i = 0; i < 100; i += 1) {
+            store.put("session" + i, route(i));
+        }
+        assertTrue(store.size() <= 10);
+    }
+
+    private static RouteResult route(long... ids) {
+        return new RouteResult(RouteResult.Status.FOUND, ids, 0);
+    }
+}
@@ -0,0 +1,242 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RouterTest {
+    /** No limit on the work a search may do. */
+    private static final RouteLimits UNLIMITED = new RouteLimits(Integer.MAX_VALUE, 60000,
+            () -> false);
+
+    /**
+     * Returns a road of five vertices 1 to 5 going east, 0.01 degrees apart, and a separate road
+     * from 6 to 7 to the north of it.
+     */
+    private static GraphDB roadAndIsland() throws Exception {
+        return TestGraphs.osm(TestGraphs.node(1, 0, 0), TestGraphs.node(2, 0.01, 0),
+                TestGraphs.node(3, 0.02, 0), TestGraphs.node(4, 0.03, 0),
+                TestGraphs.node(5, 0.04, 0), TestGraphs.node(6, 0, 1),
+                TestGraphs.node(7, 0.01, 1), TestGraphs.way(10, 1, 2, 3, 4, 5),
+                TestGraphs.way(11, 6, 7));
+    }
+
+    /**
+     * Returns the unit square 1 (0, 0), 2 (1, 0), 3 (1, 1), 4 (0, 1), with a road around it and
+     * one from 1 to 5 in its middle. The coordinates are exact in binary, so that points on an
+     * edge of a hull are exactly collinear with it.
+     */
+    private static GraphDB square() throws Exception {
+        return TestGraphs.osm(TestGraphs.node(1, 0, 0), TestGraphs.node(2, 1, 0),
+                TestGraphs.node(3, 1, 1), TestGraphs.node(4, 0, 1),
+                TestGraphs.node(5, 0.5, 0.5), TestGraphs.way(10, 1, 2, 3, 4, 1),
+                TestGraphs.way(11, 1, 5));
+    }
+
+    /** Returns the length of path, or infinity if it is empty. */
+    private static double length(GraphDB g, List<Long> path) {
+        if (path.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double length = 0;
+        Long previous = null;
+        for (Long v : path) {
+            if (previous != null) {
+                length += g.distance(previous, v);
+            }
+            previous = v;
+        }
+        return length;
+    }
+
+    @Test
+    public void testMatrixMatchesShortestPaths() throws Exception {
+        GraphDB g = TestGraphs.city(2500, 7).graph;
+        long[] sources = {g.ids[0], g.ids[g.size() / 3], g.ids[g.size() - 1]};
+        long[] targets = {g.ids[1], g.ids[g.size() / 2], g.ids[g.size() / 5], g.ids[0]};
+        Router.Matrix m = Router.distanceMatrix(g, lons(g, sources), lats(g, sources),
+                lons(g, targets), lats(g, targets), UNLIMITED);
+        for (int i = 0; i < sources.length; i += 1) {
+            for (int j = 0; j < targets.length; j += 1) {
+                double expected = length(g, Router.shortestPath(g, sources[i], targets[j]));
+                assertEquals(sources[i] + " to " + targets[j], expected,
+                        m.distances[i * targets.length + j], 1e-9);
+            }
+        }
+        /* The first source is also the last target. */
+        assertEquals(0, m.distances[3], 0);
+
+        /* No sources or no targets make an empty matrix. */
+        m = Router.distanceMatrix(g, new double[0], new double[0], lons(g, targets),
+                lats(g, targets), UNLIMITED);
+        assertEquals(0, m.distances.length);
+        m = Router.distanceMatrix(g, lons(g, sources), lats(g, sources), new double[0],
+                new double[0], UNLIMITED);
+        assertEquals(0, m.distances.length);
+        assertEquals(RouteResult.Status.FOUND, m.status[0]);
+    }
+
+    private static double[] lons(GraphDB g, long[] ids) {
+        double[] lons = new double[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            lons[i] = g.lon(ids[i]);
+        }
+        return lons;
+    }
+
+    private static double[] lats(GraphDB g, long[] ids) {
+        double[] lats = new double[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            lats[i] = g.lat(ids[i]);
+        }
+        return lats;
+    }
+
+    @Test
+    public void testBatchKeepsRequestOrder() throws Exception {
+        GraphDB g = TestGraphs.city(2500, 7).graph;
+        double[][] queries = new double[40][];
+        for (int i = 0; i < queries.length; i += 1) {
+            long from = g.ids[(i * 61) % g.size()];
+            long to = g.ids[(i * 97 + 13) % g.size()];
+            queries[i] = new double[] {g.lon(from), g.lat(from), g.lon(to), g.lat(to)};
+        }
+        List<RouteResult> results = Router.shortestPaths(g, queries, UNLIMITED);
+        assertEquals(queries.length, results.size());
+        for (int i = 0; i < queries.length; i += 1) {
+            double[] q = queries[i];
+            assertEquals("query " + i, Router.shortestPath(g, q[0], q[1], q[2], q[3]),
+                    results.get(i).toList());
+            assertEquals(RouteResult.Status.FOUND, results.get(i).status());
+        }
+        assertTrue(Router.shortestPaths(g, new double[0][], UNLIMITED).isEmpty());
+
+        /* Every route stops once the caller has gone, and says so. */
+        GraphDB road = roadAndIsland();
+        results = Router.shortestPaths(road, new double[][] {{0, 0, 0.04, 0}, {0, 0, 0.01, 1}},
+                UNLIMITED.cancelledWhen(() -> true));
+        assertEquals(RouteResult.Status.CANCELLED, results.get(0).status());
+        assertEquals(RouteResult.Status.CANCELLED, results.get(1).status());
+        results = Router.shortestPaths(road, new double[][] {{0, 0, 0.01, 1}}, UNLIMITED);
+        assertEquals(RouteResult.Status.UNREACHABLE, results.get(0).status());
+    }
+
+    @Test
+    public void testReachableWithinBudget() throws Exception {
+        GraphDB g = square();
+        /* From 1, the middle is sqrt(0.5) away, 2 and 4 are 1 away and 3 is 2 away. */
+        Router.Reachable r = Router.reachable(g, 0, 0, 1, UNLIMITED);
+        long[] ids = r.ids.clone();
+        Arrays.sort(ids);
+        assertArrayEquals(new long[] {1, 2, 4, 5}, ids);
+        assertEquals(0, r.distances[0], 0);
+        assertEquals(Math.sqrt(0.5), r.distances[1], 1e-12);
+        /* The middle lies on the edge from 2 to 4, so it is not a corner of the hull. */
+        assertArrayEquals(new double[][] {{0, 0}, {1, 0}, {0, 1}},
+                Router.convexHull(g, r.ids));
+
+        r = Router.reachable(g, 0, 0, 2, UNLIMITED);
+        assertEquals(5, r.ids.length);
+        assertArrayEquals(new double[][] {{0, 0}, {1, 0}, {1, 1}, {0, 1}},
+                Router.convexHull(g, r.ids));
+
+        /* The vertices of the island are all that can be reached from it. */
+        g = roadAndIsland();
+        r = Router.reachable(g, 0, 1, 10, UNLIMITED);
+        assertArrayEquals(new long[] {6, 7}, r.ids);
+    }
+
+    @Test
+    public void testDegenerateHulls() throws Exception {
+        GraphDB g = square();
+        assertEquals(0, Router.convexHull(g, new long[0]).length);
+        /* A budget of 0 reaches only the start; one a little past the middle only that. */
+        assertArrayEquals(new double[][] {{0, 0}},
+                Router.convexHull(g, Router.reachable(g, 0, 0, 0, UNLIMITED).ids));
+        assertArrayEquals(new double[][] {{0, 0}, {0.5, 0.5}},
+                Router.convexHull(g, Router.reachable(g, 0, 0, 0.8, UNLIMITED).ids));
+        /* Collinear points make a hull of just the two ends. */
+        assertArrayEquals(new double[][] {{0, 0}, {1, 1}},
+                Router.convexHull(g, new long[] {5, 3, 1}));
+
+        GraphDB empty = TestGraphs.osm();
+        Router.Reachable r = Router.reachable(empty, 0, 0, 1, UNLIMITED);
+        assertEquals(RouteResult.Status.FOUND, r.status);
+        assertEquals(0, r.ids.length);
+    }
+
+    @Test
+    public void testMatrixStatus() throws Exception {
+        GraphDB g = roadAndIsland();
+        double[] lons = {0, 0.04, 0};
+        double[] lats = {0, 0, 1};
+        Router.Matrix m = Router.distanceMatrix(g, new double[] {0}, new double[] {0},
+                new double[] {0.04}, new double[] {0}, UNLIMITED);
+        assertEquals(RouteResult.Status.FOUND, m.status[0]);
+        assertEquals(0.04, m.distances[0], 1e-9);
+
+        /* The island cannot be reached: the whole road is searched, and that is reported. */
+        m = Router.distanceMatrix(g, new double[] {0}, new double[] {0}, lons, lats, UNLIMITED);
+        assertEquals(RouteResult.Status.UNREACHABLE, m.status[0]);
+        assertEquals(0.04, m.distances[1], 1e-9);
+        assertTrue(Double.isInfinite(m.distances[2]));
+
+        m = Router.distanceMatrix(g, new double[] {0}, new double[] {0}, lons, lats,
+                new RouteLimits(2, 60000, () -> false));
+        assertEquals(RouteResult.Status.BUDGET_EXCEEDED, m.status[0]);
+        assertTrue(Double.isInfinite(m.distances[1]));
+
+        m = Router.distanceMatrix(g, new double[] {0}, new double[] {0}, lons, lats,
+                UNLIMITED.cancelledWhen(() -> true));
+        assertEquals(RouteResult.Status.CANCELLED, m.status[0]);
+
+        /* Nothing is reached on a graph without vertices. */
+        m = Router.distanceMatrix(TestGraphs.osm(), new double[] {0}, new double[] {0}, lons,
+                lats, UNLIMITED);
+        assertEquals(RouteResult.Status.UNREACHABLE, m.status[0]);
+        assertTrue(Double.isInfinite(m.distances[0]));
+        assertEquals(3, m.distances.length);
+    }
+
+    @Test
+    public void testClosestIndexMatchesClosest() throws Exception {
+        GraphDB g = TestGraphs.city(2500, 7).graph;
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i += 1) {
+            double lon = g.lons[random.nextInt(g.size())] + random.nextGaussian() * 1e-3;
+            double lat = g.lats[random.nextInt(g.size())] + random.nextGaussian() * 1e-3;
+            assertEquals(g.closest(lon, lat), g.ids[g.closestIndex(lon, lat)]);
+        }
+        assertEquals(-1, TestGraphs.osm().closestIndex(0, 0));
+    }
+
+    @Test
+    public void testReachableStatus() throws Exception {
+        GraphDB g = roadAndIsland();
+        Router.Reachable r = Router.reachable(g, 0, 0, 1, UNLIMITED);
+        assertEquals(RouteResult.Status.FOUND, r.status);
+        assertEquals(5, r.ids.length);
+
+        r = Router.reachable(g, 0, 0, 1, new RouteLimits(3, 60000, () -> false));
+        assertEquals(RouteResult.Status.BUDGET_EXCEEDED, r.status);
+        /* The closest vertices are the ones kept. */
+        assertArrayEquals(new long[] {1, 2, 3}, r.ids);
+
+        r = Router.reachable(g, 0, 0, 1, UNLIMITED.cancelledWhen(() -> true));
+        assertEquals(RouteResult.Status.CANCELLED, r.status);
+    }
+
+    @Test
+    public void testRouteStatus() throws Exception {
+        GraphDB g = roadAndIsland();
+        assertEquals(RouteResult.Status.FOUND, Router.route(g, 1, 5, UNLIMITED).status());
+        assertEquals(RouteResult.Status.UNREACHABLE, Router.route(g, 1, 7, UNLIMITED).status());
+        /* A pair not in the route cache yet, so that it is searched for. */
+        assertEquals(RouteResult.Status.BUDGET_EXCEEDED,
+                Router.route(g, 2, 5, new RouteLimits(2, 60000, () -> false)).status());
+        assertEquals(RouteResult.Status.CANCELLED,
+                Router.route(g, 1, 4, UNLIMITED.cancelledWhen(() -> true)).status());
+    }
+}
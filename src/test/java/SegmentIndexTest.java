@@ -0,0 +1,100 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SegmentIndexTest {
+    @Test
+    public void testNearestMatchesBruteForce() {
+        Random r = new Random(5);
+        int n = 3000;
+        double[] x0 = new double[n];
+        double[] y0 = new double[n];
+        double[] x1 = new double[n];
+        double[] y1 = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            x0[i] = r.nextDouble();
+            y0[i] = r.nextDouble();
+            x1[i] = x0[i] + (r.nextDouble() - 0.5) * 0.05;
+            y1[i] = y0[i] + (r.nextDouble() - 0.5) * 0.05;
+        }
+        SegmentIndex index = new SegmentIndex(x0, y0, x1, y1);
+        for (int q = 0; q < 200; q += 1) {
+            double x = r.nextDouble();
+            double y = r.nextDouble();
+            int best = 0;
+            for (int i = 1; i < n; i += 1) {
+                if (distance(x0, y0, x1, y1, i, x, y) < distance(x0, y0, x1, y1, best, x, y)) {
+                    best = i;
+                }
+            }
+            int found = index.nearest(x, y);
+            assertEquals(distance(x0, y0, x1, y1, best, x, y),
+                    distance(x0, y0, x1, y1, found, x, y), 1e-12);
+        }
+        assertEquals(-1, new SegmentIndex(new double[0], new double[0], new double[0],
+                new double[0]).nearest(0, 0));
+    }
+
+    @Test
+    public void testWithinMatchesBruteForce() {
+        Random r = new Random(6);
+        int n = 3000;
+        double[] x0 = new double[n];
+        double[] y0 = new double[n];
+        double[] x1 = new double[n];
+        double[] y1 = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            x0[i] = r.nextDouble();
+            y0[i] = r.nextDouble();
+            x1[i] = x0[i] + (r.nextDouble() - 0.5) * 0.05;
+            y1[i] = y0[i] + (r.nextDouble() - 0.5) * 0.05;
+        }
+        SegmentIndex index = new SegmentIndex(x0, y0, x1, y1);
+        for (int q = 0; q < 100; q += 1) {
+            double west = r.nextDouble();
+            double south = r.nextDouble();
+            double east = west + r.nextDouble() * 0.1;
+            double north = south + r.nextDouble() * 0.1;
+            int[] expected = new int[n];
+            int count = 0;
+            for (int i = 0; i < n; i += 1) {
+                if (Math.min(x0[i], x1[i]) <= east && Math.max(x0[i], x1[i]) >= west
+                        && Math.min(y0[i], y1[i]) <= north && Math.max(y0[i], y1[i]) >= south) {
+                    expected[count] = i;
+                    count += 1;
+                }
+            }
+            int[] found = index.within(west, south, east, north);
+            Arrays.sort(found);
+            assertArrayEquals(Arrays.copyOf(expected, count), found);
+        }
+    }
+
+    @Test
+    public void testRoutesStartAndEndOnRoads() throws Exception {
+        GraphDB g = TestGraphs.lShape();
+        RouteResult r = Router.routeOnEdges(g, 0.004, 0.0001, 0.0101, 0.006,
+                RouteLimits.DEFAULT);
+        assertTrue(r.found());
+        assertArrayEquals(new long[] {2}, r.path);
+        assertArrayEquals(new double[] {0.004, 0}, r.source, 1e-12);
+        assertArrayEquals(new double[] {0.01, 0.006}, r.target, 1e-12);
+
+        /* Both ends on one segment: straight along it, through no vertex at all. */
+        r = Router.routeOnEdges(g, 0.002, 0, 0.008, 0, RouteLimits.DEFAULT);
+        assertTrue(r.found());
+        assertEquals(0, r.path.length);
+
+        /* Vertex snapping is unchanged. */
+        assertEquals(Arrays.asList(1L, 2L), Router.shortestPath(g, 0.002, 0, 0.008, 0));
+    }
+
+    private static double distance(double[] x0, double[] y0, double[] x1, double[] y1, int i,
+                                   double x, double y) {
+        double t = SegmentIndex.projection(x0[i], y0[i], x1[i], y1[i], x, y);
+        return Math.hypot(x0[i] + t * (x1[i] - x0[i]) - x, y0[i] + t * (y1[i] - y0[i]) - y);
+    }
+}
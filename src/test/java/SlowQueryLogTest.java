@@ -0,0 +1,28 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SlowQueryLogTest {
+    @Test
+    public void testBurstsAreCapped() throws Exception {
+        File file = File.createTempFile("slow_queries", ".log");
+        file.deleteOnExit();
+        SlowQueryLog log = new SlowQueryLog(file.getPath(), 100, 1.0, 3);
+        Map<String, String> params = new HashMap<>();
+        params.put("start_lon", "-122.25");
+        log.log("/route", params, 50 * 1000000L, null);
+        for (int i = 0; i < 20; i += 1) {
+            log.log("/route", params, 200 * 1000000L, null);
+        }
+        /* The burst spans at most two seconds, of three entries each. */
+        List<SlowQueryLog.Entry> entries = SlowQueryLog.read(file.getPath());
+        assertTrue(entries.size() + " entries", entries.size() >= 3 && entries.size() <= 6);
+        assertEquals("/route", entries.get(0).endpoint);
+        assertEquals(200, entries.get(0).millis, 0);
+    }
+}
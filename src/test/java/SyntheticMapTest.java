@@ -0,0 +1,28 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SyntheticMapTest {
+    @Test
+    public void testImportedGraphIsAGrid() throws Exception {
+        TestGraphs.City city = TestGraphs.city(2500, 7);
+        SyntheticMap map = city.map;
+        GraphDB g = city.graph;
+        int vertices = 0;
+        int[] degrees = new int[5];
+        for (long v : g.vertices()) {
+            int d = 0;
+            for (long w : g.adjacent(v)) {
+                d += 1;
+            }
+            degrees[d] += 1;
+            vertices += 1;
+        }
+        assertTrue(vertices > 2000 && vertices <= 2500);
+        /* Mostly crossings, with T junctions, bends and dead ends. */
+        assertTrue(degrees[4] > degrees[1]);
+        assertTrue(degrees[3] > 0 && degrees[1] > 0);
+        assertFalse(Router.shortestPath(g, map.lon(0, 0), map.lat(0, 0), map.lon(49, 49),
+                map.lat(49, 49)).isEmpty());
+    }
+}
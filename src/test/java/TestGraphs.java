@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Map fixtures shared by the tests: graphs of small hand-written OSM files, and synthetic
+ * cities, which are imported once per size and seed and shared by every test that asks for
+ * them, since importing one takes a while and nothing changes a GraphDB once it is built.
+ */
+class TestGraphs {
+    /** A synthetic city, and the graph imported from it. */
+    static class City {
+        final SyntheticMap map;
+        final GraphDB graph;
+
+        private City(SyntheticMap map, GraphDB graph) {
+            this.map = map;
+            this.graph = graph;
+        }
+    }
+
+    private static final Map<String, City> CITIES = new HashMap<>();
+
+    /**
+     * Returns the graph of an OSM file holding the given elements, such as those returned by
+     * node and way. Every call imports a new graph, with a snapshot of its own.
+     */
+    static GraphDB osm(String... elements) throws Exception {
+        File f = File.createTempFile("fixture", ".osm");
+        f.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(f, "UTF-8")) {
+            out.println("<osm>");
+            for (String e : elements) {
+                out.println(e);
+            }
+            out.println("</osm>");
+        }
+        return new GraphDB(f.getPath());
+    }
+
+    static String node(long id, double lon, double lat) {
+        return "<node id=\"" + id + "\" lat=\"" + lat + "\" lon=\"" + lon + "\"/>";
+    }
+
+    /** Returns a named node, which is a location as well as a possible vertex. */
+    static String node(long id, double lon, double lat, String name) {
+        return "<node id=\"" + id + "\" lat=\"" + lat + "\" lon=\"" + lon + "\">"
+                + "<tag k=\"name\" v=\"" + name + "\"/></node>";
+    }
+
+    /** Returns a residential road through the nodes refs, in order. */
+    static String way(long id, long... refs) {
+        StringBuilder s = new StringBuilder("<way id=\"" + id + "\">");
+        for (long ref : refs) {
+            s.append("<nd ref=\"").append(ref).append("\"/>");
+        }
+        return s.append("<tag k=\"highway\" v=\"residential\"/></way>").toString();
+    }
+
+    /** Returns a graph of one road between two nodes, 1 and 2. */
+    static GraphDB twoNodes() throws Exception {
+        return osm(node(1, -122.26, 37.87), node(2, -122.25, 37.88), way(10, 1, 2));
+    }
+
+    /** Returns a graph of an L-shaped road: 1 to 2 going east, then 2 to 3 going north. */
+    static GraphDB lShape() throws Exception {
+        return osm(node(1, 0, 0), node(2, 0.01, 0), node(3, 0.01, 0.01), way(10, 1, 2, 3));
+    }
+
+    /** Returns the synthetic city of about nodes vertices made from seed. */
+    static synchronized City city(long nodes, long seed) throws Exception {
+        String key = nodes + "/" + seed;
+        City c = CITIES.get(key);
+        if (c == null) {
+            SyntheticMap map = SyntheticMap.ofSize(nodes, seed);
+            File osm = File.createTempFile("synthetic", ".osm");
+            osm.deleteOnExit();
+            try (OutputStream out = new FileOutputStream(osm)) {
+                map.writeOsm(out);
+            }
+            c = new City(map, new GraphDB(osm.getPath()));
+            CITIES.put(key, c);
+        }
+        return c;
+    }
+}
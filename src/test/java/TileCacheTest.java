@@ -0,0 +1,114 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TileCacheTest {
+    @Test
+    public void testTilesAreDrawnOnce() throws Exception {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        AtomicInteger drawn = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TileSource slow = (d, x, y) -> {
+            drawn.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        };
+        TileCache cache = new TileCache(slow, dir, 2);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i += 1) {
+            threads[i] = new Thread(() -> cache.tile(3, 5, 6));
+            threads[i].start();
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, drawn.get());
+        assertTrue(new File(dir, "3/5/6.png").exists());
+
+        /* A new cache over the same directory reads the tile from disk. */
+        TileCache reopened = new TileCache(slow, dir, 2);
+        assertEquals(4, reopened.tile(3, 5, 6).getWidth());
+        assertEquals(1, drawn.get());
+
+        reopened.clear();
+        assertFalse(dir.exists());
+    }
+
+    @Test
+    public void testStaleSiblingsAreDeleted() throws Exception {
+        File root = Files.createTempDirectory("tile_cache").toFile();
+        TileSource blank = (d, x, y) -> new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB);
+        TileCache stale = new TileCache(blank, new File(root, "map.osm-2d0906-1a0-52cf0993"), 2);
+        stale.tile(3, 5, 6);
+        assertTrue(new File(stale.dir(), TileCache.MARKER).isFile());
+        /* Directories that are not tile caches are left alone, whatever their names. */
+        File other = new File(root, "0f3a-4b2c-11d9-8e7f");
+        assertTrue(other.mkdirs());
+        TileCache current = new TileCache(blank, new File(root, "map.osm-2d0907-1a1-52cf0993"),
+                2);
+        current.tile(0, 0, 0);
+
+        assertEquals(1, current.deleteSiblings());
+        assertFalse(stale.dir().exists());
+        assertTrue(current.dir().exists());
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void testDeepTilesHaveTheirOwnKeys() throws Exception {
+        int max = (1 << TilePyramid.MAX_DEPTH) - 1;
+        AtomicInteger drawn = new AtomicInteger();
+        TileCache cache = new TileCache((d, x, y) -> {
+            drawn.incrementAndGet();
+            return new BufferedImage(1 + d % 2, 1, BufferedImage.TYPE_INT_RGB);
+        }, Files.createTempDirectory("tiles").toFile(), 8);
+        cache.tile(TilePyramid.MAX_DEPTH, max, max);
+        cache.tile(TilePyramid.MAX_DEPTH - 1, max >> 1, max >> 1);
+        cache.tile(TilePyramid.MAX_DEPTH, 0, max);
+        assertEquals(3, drawn.get());
+        assertEquals(2, cache.tile(TilePyramid.MAX_DEPTH, max, max).getWidth());
+        assertEquals(1, cache.tile(TilePyramid.MAX_DEPTH - 1, max >> 1, max >> 1).getWidth());
+    }
+
+    @Test
+    public void testRendererDrawsRoadsOnlyWhereThereAreRoads() throws Exception {
+        TestGraphs.City city = TestGraphs.city(2500, 7);
+        SyntheticMap map = city.map;
+        GraphDB g = city.graph;
+        /* The map fills the north-west quarter of the pyramid. */
+        double west = map.lon(0, 0);
+        double north = map.lat(0, 0);
+        double east = 2 * map.lon(49, 49) - west;
+        double south = 2 * map.lat(49, 49) - north;
+        TilePyramid p = new TilePyramid("t/", west, north, east, south, 4,
+                TilePyramid.Layout.ZXY);
+        TileRenderer renderer = new TileRenderer(g, p);
+        int background = TilePyramid.BACKGROUND.getRGB();
+        assertTrue(countOther(renderer.tile(1, 0, 0), background) > 1000);
+        assertEquals(0, countOther(renderer.tile(2, 3, 3), background));
+    }
+
+    private static int countOther(BufferedImage img, int rgb) {
+        int count = 0;
+        for (int y = 0; y < img.getHeight(); y += 1) {
+            for (int x = 0; x < img.getWidth(); x += 1) {
+                if (img.getRGB(x, y) != rgb) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+}
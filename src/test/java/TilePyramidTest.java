@@ -0,0 +1,99 @@
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TilePyramidTest {
+    @Test
+    public void testQuadrantNamesRoundTrip() {
+        assertEquals("root", TilePyramid.quadrantName(0, 0, 0));
+        assertEquals("2", TilePyramid.quadrantName(1, 1, 0));
+        assertEquals("3", TilePyramid.quadrantName(1, 0, 1));
+        assertEquals("14", TilePyramid.quadrantName(2, 1, 1));
+        assertEquals("41", TilePyramid.quadrantName(2, 2, 2));
+        TilePyramid p = new TilePyramid("img/", -1, 1, 1, -1, 7, TilePyramid.Layout.QUADRANT);
+        assertEquals("img/2323.png", p.path(4, 10, 5));
+        assertArrayEquals(new int[] {4, 10, 5}, p.locate("img/2323.png"));
+        assertArrayEquals(new int[] {0, 0, 0}, p.locate("img/root.png"));
+        assertNull(p.locate("img/1593.png"));
+        TilePyramid zxy = new TilePyramid("t/", -1, 1, 1, -1, 18, TilePyramid.Layout.ZXY);
+        assertArrayEquals(new int[] {17, 1234, 99}, zxy.locate(zxy.path(17, 1234, 99)));
+    }
+
+    @Test
+    public void testDeepPyramidIsRasteredArithmetically() {
+        TilePyramid p = new TilePyramid("t/", -123, 38, -122, 37, 18, TilePyramid.Layout.ZXY);
+        Rasterer r = new Rasterer(p, (d, x, y) -> null);
+        Map<String, Double> q = new HashMap<>();
+        q.put("ullon", -122.5);
+        q.put("lrlon", -122.5 + 1000 * 1.5 / (256 << 17));
+        q.put("ullat", 37.5);
+        q.put("lrlat", 37.5 - 0.5 * 1000 * 1.5 / (256 << 17));
+        q.put("w", 1000.0);
+        q.put("h", 500.0);
+        Map<String, Object> result = r.getMapRaster(q);
+        assertEquals(17, result.get("depth"));
+        String[][] grid = (String[][]) result.get("render_grid");
+        assertEquals("t/17/65536/65536.png", grid[0][0]);
+        assertEquals(6, grid[0].length);
+        assertEquals(3, grid.length);
+        assertEquals(-122.5, (double) result.get("raster_ul_lon"), 1e-12);
+        assertEquals(37.5, (double) result.get("raster_ul_lat"), 1e-12);
+    }
+
+    @Test
+    public void testRastersAreCappedInDepthAndTiles() {
+        TilePyramid p = new TilePyramid("t/", -123, 38, -122, 37, 18, 12,
+                TilePyramid.Layout.ZXY);
+        assertEquals(12, p.depthFor(1e-9));
+        assertEquals(12, p.describe().get("maxDepth"));
+        Rasterer r = new Rasterer(p, (d, x, y) -> null);
+        Map<String, Double> q = new HashMap<>();
+        q.put("ullon", -123.0);
+        q.put("lrlon", -122.0);
+        q.put("ullat", 38.0);
+        q.put("lrlat", 37.0);
+        q.put("w", 1e9);
+        q.put("h", 1e9);
+        /* 4096 by 4096 tiles at depth 12: refused rather than allocated. */
+        try {
+            r.getMapRaster(q);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("16777216 tiles"));
+        }
+        q.put("w", 1000.0);
+        q.put("h", 1000.0);
+        assertEquals(2, r.getMapRaster(q).get("depth"));
+        try {
+            new TilePyramid("t/", -1, 1, 1, -1, 31, TilePyramid.Layout.ZXY);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("31"));
+        }
+    }
+
+    @Test
+    public void testMissingTilesAreStretchedFromAncestors() {
+        BufferedImage root = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = root.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, 128, 256);
+        g.setColor(Color.BLUE);
+        g.fillRect(128, 0, 128, 256);
+        g.dispose();
+        TilePyramid p = new TilePyramid("t/", -1, 1, 1, -1, 20, TilePyramid.Layout.QUADRANT);
+        TileSource onlyRoot = (d, x, y) -> d == 0 ? root : null;
+        assertSame(root, p.image(onlyRoot, 0, 0, 0));
+        assertEquals(Color.RED.getRGB(), p.image(onlyRoot, 1, 0, 1).getRGB(200, 200));
+        assertEquals(Color.BLUE.getRGB(), p.image(onlyRoot, 1, 1, 0).getRGB(10, 10));
+        /* Far below the root, a tile is a stretched fraction of one pixel. */
+        assertEquals(Color.BLUE.getRGB(), p.image(onlyRoot, 20, (1 << 20) - 1, 5).getRGB(0, 0));
+        assertEquals(256, p.image((d, x, y) -> null, 3, 1, 1).getWidth());
+    }
+}
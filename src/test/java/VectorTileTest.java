@@ -0,0 +1,125 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VectorTileTest {
+    /** A decoded tile: each polyline as x0, y0, x1, y1, ..., and the locations' names. */
+    private static class Decoded {
+        List<long[]> lines = new ArrayList<>();
+        List<long[]> points = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+    }
+
+    @Test
+    public void testTilesDecodeAndSimplifyWhenZoomedOut() throws Exception {
+        TestGraphs.City city = TestGraphs.city(2500, 7);
+        SyntheticMap map = city.map;
+        GraphDB g = city.graph;
+        TilePyramid p = new TilePyramid("t/", map.lon(0, 0), map.lat(0, 0), map.lon(49, 49),
+                map.lat(49, 49), 7, TilePyramid.Layout.ZXY);
+
+        Decoded root = decode(VectorTile.encode(g, p, 0, 0, 0, 1000, 100000));
+        assertFalse(root.lines.isEmpty());
+        assertFalse(root.names.isEmpty());
+        for (long[] line : root.lines) {
+            assertTrue(line.length >= 4);
+        }
+        for (long[] point : root.points) {
+            assertTrue(point[0] >= 0 && point[0] <= VectorTile.EXTENT);
+            assertTrue(point[1] >= 0 && point[1] <= VectorTile.EXTENT);
+        }
+
+        /* The four tiles below carry more detail between them than the root does. */
+        int rootPoints = countPoints(root);
+        int childPoints = 0;
+        for (int i = 0; i < 4; i += 1) {
+            childPoints += countPoints(decode(VectorTile.encode(g, p, 1, i % 2, i / 2, 1000,
+                    100000)));
+        }
+        assertTrue(childPoints > rootPoints);
+
+        /* Locations are capped. */
+        assertEquals(3, decode(VectorTile.encode(g, p, 0, 0, 0, 3, 100000)).names.size());
+
+        /* A tile over more roads than allowed is turned away, while its children fit. */
+        int segments = g.roadsWithin(p.ullon(), p.lrlat(), p.lrlon(), p.ullat()).length / 2;
+        try {
+            VectorTile.encode(g, p, 0, 0, 0, 1000, segments - 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains(segments + " road segments"));
+        }
+        VectorTile.encode(g, p, 1, 0, 0, 1000, segments - 1);
+    }
+
+    @Test
+    public void testVarints() {
+        assertEquals(0, VectorTile.zigzag(0));
+        assertEquals(1, VectorTile.zigzag(-1));
+        assertEquals(2, VectorTile.zigzag(1));
+        assertEquals(4095, VectorTile.zigzag(-2048));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VectorTile.writeVarint(out, 300);
+        assertArrayEquals(new byte[] {(byte) 0xAC, 0x02}, out.toByteArray());
+    }
+
+    private static int countPoints(Decoded t) {
+        int n = 0;
+        for (long[] line : t.lines) {
+            n += line.length / 2;
+        }
+        return n;
+    }
+
+    private static Decoded decode(byte[] bytes) {
+        int[] at = {0};
+        assertEquals(VectorTile.VERSION, varint(bytes, at));
+        assertEquals(VectorTile.EXTENT, varint(bytes, at));
+        Decoded t = new Decoded();
+        long x = 0;
+        long y = 0;
+        long lines = varint(bytes, at);
+        for (long l = 0; l < lines; l += 1) {
+            long[] line = new long[2 * (int) varint(bytes, at)];
+            for (int i = 0; i < line.length; i += 2) {
+                x += unzigzag(varint(bytes, at));
+                y += unzigzag(varint(bytes, at));
+                line[i] = x;
+                line[i + 1] = y;
+            }
+            t.lines.add(line);
+        }
+        long locations = varint(bytes, at);
+        for (long l = 0; l < locations; l += 1) {
+            x += unzigzag(varint(bytes, at));
+            y += unzigzag(varint(bytes, at));
+            t.points.add(new long[] {x, y});
+            int length = (int) varint(bytes, at);
+            t.names.add(new String(bytes, at[0], length, StandardCharsets.UTF_8));
+            at[0] += length;
+        }
+        assertEquals(bytes.length, at[0]);
+        return t;
+    }
+
+    private static long varint(byte[] bytes, int[] at) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[at[0]];
+            at[0] += 1;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+}